@@ -0,0 +1,785 @@
+import java.util.Arrays;
+
+/**
+ * Negamax search with alpha-beta pruning and iterative deepening over a BitboardPosition.
+ * Moves are tried best-first: the previous iteration's best move at the root, then captures by
+ * most valuable victim / least valuable attacker, then killer moves, then the history heuristic.
+ * Visited nodes are counted so the search can be compared with Board's full-width minimax.
+ * Results are kept in a TranspositionTable, whose best move is tried before all others.
+ * Move lists live in one preallocated buffer indexed by ply, so a search does not allocate.
+ * An instance is used by one thread at a time; ParallelSearch runs several over a shared or
+ * private table. stop() may be called from any thread and ends the search at the next node.
+ * Leaves are resolved by a capture-only quiescence search (all evasions when in check): captures
+ * are tried by MVV-LVA, captures that lose material by static exchange evaluation are skipped, and
+ * so are captures that cannot lift the score to alpha even with a margin (delta pruning).
+ * -Dchess.quiescence=false scores leaves statically instead.
+ * A search can also be bounded by SearchLimits (depth, nodes, movetime or clock time); a listener
+ * is told about every finished iteration.
+ * With -Dchess.eval=network, leaves are scored by the evaluation model through an
+ * IncrementalEvaluator accumulator that follows every make and unmake, instead of by material;
+ * leaves already scored, in this search or elsewhere, come from the shared EvalCache. That is
+ * only faster than ONNX Runtime on the Vector API kernels, so without the jdk.incubator.vector
+ * module network falls back to batched.
+ * With -Dchess.eval=batched the leaves are scored by the Evaluator model instead, a frontier
+ * node's leaf children or a quiescence node's captures at a time, through a LeafBatcher that
+ * merges them with the leaves of other search threads into one model call.
+ */
+public class AlphaBetaSearch {
+    public static final int INFINITY = 1000000;
+    public static final int MATE = 100000;
+
+    private static final int MAX_PLY = 64;
+
+    // Scores beyond +-MATE_BOUND are mates found in the tree, at most MAX_PLY plies away
+    public static final int MATE_BOUND = MATE - MAX_PLY - 1;
+    // A tablebase win found ply plies from the root scores TABLEBASE_WIN - ply, below every mate
+    public static final int TABLEBASE_WIN = MATE_BOUND - 1;
+    // Scores beyond +-DECISIVE_BOUND are mates or tablebase wins
+    private static final int DECISIVE_BOUND = TABLEBASE_WIN - MAX_PLY - 1;
+
+    // Move ordering bands: hash move, captures, then the two killers, then quiet moves by history
+    private static final int HASH_ORDER = 4000000;
+    private static final int CAPTURE_ORDER = 3000000;
+    private static final int KILLER_ORDER = 2000000;
+    private static final int HISTORY_LIMIT = 1000000;
+
+    // Nodes between two looks at the clock and the node limit
+    private static final int CHECK_INTERVAL = 1024;
+
+    private static final boolean QUIESCENCE = !"false".equals(System.getProperty("chess.quiescence"));
+
+    // Set once chess.eval=network has been reported as falling back to batched
+    private static volatile boolean scalarNetworkWarned;
+
+    // A capture whose victim, plus this, leaves the stand-pat score below alpha is not searched
+    private static final int DELTA_MARGIN = 200;
+
+    // Piece values for static exchange evaluation; the king is worth more than anything it can win
+    private static final int[] SEE_VALUE = { 100, 320, 330, 500, 900, 20000 };
+
+    // Material values indexed by BitboardPosition piece type
+    private static final int[] PIECE_VALUE = { 100, 320, 330, 500, 900, 0 };
+
+    // Small bonus for minor pieces and pawns on central squares
+    private static final int[] CENTRE_BONUS = {
+        0, 0, 0, 0, 0, 0, 0, 0,
+        0, 2, 4, 5, 5, 4, 2, 0,
+        0, 4, 8, 10, 10, 8, 4, 0,
+        0, 5, 10, 15, 15, 10, 5, 0,
+        0, 5, 10, 15, 15, 10, 5, 0,
+        0, 4, 8, 10, 10, 8, 4, 0,
+        0, 2, 4, 5, 5, 4, 2, 0,
+        0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private final TranspositionTable table;
+    private final IncrementalEvaluator.Accumulator network;
+    private final EvalCache evalCache;
+    private final Tablebase tablebase = Tablebase.getShared();
+    private final LeafBatcher leafBatcher;
+    private final LeafBatcher.Request leafRequest;
+    private final long[] leafKeys;
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[][] history = new int[64][64];
+    private final int[] moveStack = new int[MAX_PLY * BitboardPosition.MAX_MOVES];
+    private final int[] orderStack = new int[MAX_PLY * BitboardPosition.MAX_MOVES];
+    private final int[] exchangeGains = new int[32]; // staticExchange's swap list
+
+    private long nodes;
+    private long cutoffs;
+    private long tableHits;
+    private long tablebaseHits;
+    private long evalCacheHits;
+    private int bestScore;
+    private int completedDepth;
+    // The best reply found at ply 1 by the last searchRootMove, and the one to the best root move
+    private int lastReply;
+    private int ponderMove;
+    private volatile boolean stopRequested;
+
+    private SearchListener listener;
+    private long startNanos;
+    private long softDeadline;
+    private long hardDeadline;
+    private boolean timed;
+    private long nodeLimit = Long.MAX_VALUE;
+
+    public AlphaBetaSearch() {
+        this(TranspositionTable.getShared());
+    }
+
+    public AlphaBetaSearch(TranspositionTable table) {
+        this(table, "network".equals(leafEvaluation()) ? IncrementalEvaluator.getShared() : null,
+                isNetworkEval() ? EvalCache.getShared() : null,
+                "batched".equals(leafEvaluation()) ? LeafBatcher.getShared() : null);
+    }
+
+    private static boolean isNetworkEval() {
+        String eval = leafEvaluation();
+        return "network".equals(eval) || "batched".equals(eval);
+    }
+
+    // -Dchess.eval as searches use it. On the scalar loops the Java network costs 160-260 us per
+    // node against about 130 us for ONNX Runtime, on the vector kernels 50-75 us
+    // (EvaluationBenchmark), so network needs the vector module and is batched without it.
+    static String leafEvaluation() {
+        String eval = System.getProperty("chess.eval");
+        if ("network".equals(eval) && !IncrementalEvaluator.isVectorAvailable()) {
+            if (!scalarNetworkWarned) {
+                scalarNetworkWarned = true;
+                Log.warn("chess.eval=network needs --add-modules jdk.incubator.vector; using batched", null);
+            }
+            return "batched";
+        }
+        return eval;
+    }
+
+    // A null network scores leaves by material
+    public AlphaBetaSearch(TranspositionTable table, IncrementalEvaluator network) {
+        this(table, network, null);
+    }
+
+    // evalCache, if not null, must only hold scores of network's model
+    public AlphaBetaSearch(TranspositionTable table, IncrementalEvaluator network, EvalCache evalCache) {
+        this(table, network, evalCache, null);
+    }
+
+    // With a leafBatcher, leaves are scored through it and network is ignored; evalCache must then
+    // not be null, as it carries the batched scores to the leaves
+    public AlphaBetaSearch(TranspositionTable table, IncrementalEvaluator network, EvalCache evalCache,
+            LeafBatcher leafBatcher) {
+        if (leafBatcher != null && evalCache == null) {
+            throw new IllegalArgumentException("Batched leaf evaluation needs an EvalCache");
+        }
+        this.table = table;
+        this.network = (network == null || leafBatcher != null) ? null : network.newAccumulator();
+        this.evalCache = evalCache;
+        this.leafBatcher = leafBatcher;
+        this.leafRequest = (leafBatcher == null) ? null : leafBatcher.newRequest(BitboardPosition.MAX_MOVES);
+        this.leafKeys = (leafBatcher == null) ? null : new long[BitboardPosition.MAX_MOVES];
+    }
+
+    public int search(BitboardPosition position, int maxDepth) {
+        int[] moves = new int[BitboardPosition.MAX_MOVES];
+        int count = position.generateLegalMoves(moves, 0);
+        return search(position, maxDepth, Arrays.copyOf(moves, count));
+    }
+
+    // Searches only the given root moves, e.g. the subset the GUI is able to play
+    public int search(BitboardPosition position, int maxDepth, int[] rootMoves) {
+        return search(position, SearchLimits.depth(maxDepth), rootMoves);
+    }
+
+    public int search(BitboardPosition position, SearchLimits limits, int[] rootMoves) {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        table.newSearch();
+        prepare();
+        int side = position.getSideToMove();
+        setLimits(System.nanoTime(), limits.softBudgetMillis(side), limits.hardBudgetMillis(side), limits.nodes);
+        int best = searchTablebase(position, rootMoves);
+        if (best == BitboardPosition.NO_MOVE) best = iterate(position, limits.depth, rootMoves);
+        Metrics.recordSearch(System.nanoTime() - startNanos, nodes, cutoffs, tableHits, evalCacheHits);
+        commit(event, 1, completedDepth, bestScore, best, nodes, cutoffs, tableHits, evalCacheHits);
+        return best;
+    }
+
+    // Fills in and commits a search event if JFR is recording it
+    static void commit(SearchEvent event, int threads, int depth, int score, int bestMove, long nodes,
+            long cutoffs, long tableHits, long evalCacheHits) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.threads = threads;
+        event.depth = depth;
+        event.score = score;
+        event.bestMove = (bestMove == BitboardPosition.NO_MOVE) ? "none" : BitboardPosition.toUci(bestMove);
+        event.nodes = nodes;
+        event.cutoffs = cutoffs;
+        event.tableHits = tableHits;
+        event.evalCacheHits = evalCacheHits;
+        event.commit();
+    }
+
+    public void setListener(SearchListener listener) {
+        this.listener = listener;
+    }
+
+    // Ends the running search at the next node; the best move of the last finished depth is kept
+    public void stop() {
+        stopRequested = true;
+    }
+
+    public boolean isStopped() {
+        return stopRequested;
+    }
+
+    // Clears per-search state; the table is left to the caller
+    void prepare() {
+        nodes = 0;
+        cutoffs = 0;
+        tableHits = 0;
+        tablebaseHits = 0;
+        evalCacheHits = 0;
+        bestScore = 0;
+        completedDepth = 0;
+        ponderMove = BitboardPosition.NO_MOVE;
+        stopRequested = false;
+        timed = false;
+        nodeLimit = Long.MAX_VALUE;
+        startNanos = System.nanoTime();
+        for (int[] k : killers) {
+            k[0] = BitboardPosition.NO_MOVE;
+            k[1] = BitboardPosition.NO_MOVE;
+        }
+        for (int[] h : history) {
+            Arrays.fill(h, 0);
+        }
+    }
+
+    // Budgets in milliseconds from start, 0 for none; nodes 0 for no node limit
+    void setLimits(long start, long softMillis, long hardMillis, long nodes) {
+        startNanos = start;
+        timed = hardMillis > 0;
+        softDeadline = start + (softMillis > 0 ? softMillis : hardMillis) * 1000000L;
+        hardDeadline = start + hardMillis * 1000000L;
+        nodeLimit = (nodes > 0) ? nodes : Long.MAX_VALUE;
+    }
+
+    // True once the soft budget is spent: a new iteration would likely not finish in time
+    boolean isPastSoftDeadline() {
+        return timed && System.nanoTime() - softDeadline >= 0;
+    }
+
+    private void checkLimits() {
+        if (nodes >= nodeLimit || (timed && System.nanoTime() - hardDeadline >= 0)) {
+            stopRequested = true;
+        }
+    }
+
+    long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    // Iterative deepening over rootMoves, without starting a new table generation
+    int iterate(BitboardPosition position, int maxDepth, int[] rootMoves) {
+        int[] moves = rootMoves.clone();
+        if (moves.length == 0) return BitboardPosition.NO_MOVE;
+        int best = moves[0];
+
+        for (int depth = 1; depth <= maxDepth && !stopRequested; depth++) {
+            if (depth > 1 && isPastSoftDeadline()) break;
+            int alpha = -INFINITY;
+            int bestIndex = 0;
+            int bestReply = BitboardPosition.NO_MOVE;
+            for (int i = 0; i < moves.length && !stopRequested; i++) {
+                int score = searchRootMove(position, moves[i], depth, alpha, INFINITY);
+                if (score > alpha) {
+                    alpha = score;
+                    bestIndex = i;
+                    bestReply = lastReply;
+                }
+            }
+            if (stopRequested) break; // an unfinished depth is not trusted
+
+            // Search this iteration's best move first in the next one
+            best = moves[bestIndex];
+            System.arraycopy(moves, 0, moves, 1, bestIndex);
+            moves[0] = best;
+            bestScore = alpha;
+            completedDepth = depth;
+            ponderMove = bestReply;
+            table.store(position.getKey(), best, depth, TranspositionTable.BOUND_EXACT, alpha);
+            if (listener != null) {
+                listener.onIteration(new SearchInfo(depth, alpha, nodes, getElapsedMillis(), best));
+            }
+        }
+        return best;
+    }
+
+    // The root move ranked best by the tablebases, reported as a depth 1 result, or NO_MOVE if the
+    // position or a table it needs is missing. As in the reference root probe, every move gets the
+    // distance to zeroing of the position it leads to: a win takes the shortest, which keeps it
+    // inside the fifty-move rule when that is possible, and a loss the longest.
+    int searchTablebase(BitboardPosition position, int[] rootMoves) {
+        if (tablebase == null || !tablebase.covers(position)) return BitboardPosition.NO_MOVE;
+        int clock = position.getHalfmoveClock();
+        int[] replies = new int[BitboardPosition.MAX_MOVES];
+        int best = BitboardPosition.NO_MOVE;
+        int bestRank = Integer.MIN_VALUE;
+        int bestDtz = 0;
+        for (int move : rootMoves) {
+            position.makeMove(move);
+            int dtz;
+            if (position.getHalfmoveClock() == 0) {
+                int wdl = tablebase.probeWdl(position);
+                dtz = (wdl == Tablebase.NO_SCORE) ? wdl : Tablebase.dtzBeforeZeroing(-wdl);
+            } else if (position.isRepetition() || position.getHalfmoveClock() >= 100) {
+                dtz = 0;
+            } else {
+                dtz = tablebase.probeDtz(position);
+                if (dtz != Tablebase.NO_SCORE) {
+                    dtz = -dtz;
+                    dtz += Integer.signum(dtz);
+                }
+            }
+            if (dtz == 2 && position.isInCheck() && position.generateLegalMoves(replies, 0) == 0) dtz = 1;
+            position.unmakeMove(move);
+            if (dtz == Tablebase.NO_SCORE) return BitboardPosition.NO_MOVE;
+            tablebaseHits++;
+            int rank = (dtz > 0) ? (1 << 20) - dtz : (dtz < 0) ? -(1 << 20) - dtz : 0;
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestDtz = dtz;
+                best = move;
+            }
+        }
+        if (best == BitboardPosition.NO_MOVE) return best;
+        // Wins and losses the fifty-move rule does not reach first score as at ply 1 in the tree
+        bestScore = (bestDtz > 0) ? (bestDtz + clock <= 99 ? TABLEBASE_WIN - 1 : 1)
+                : (bestDtz < 0) ? (-bestDtz + clock <= 100 ? -TABLEBASE_WIN + 1 : -1) : 0;
+        completedDepth = 1;
+        if (listener != null) listener.onIteration(new SearchInfo(1, bestScore, nodes, getElapsedMillis(), best));
+        return best;
+    }
+
+    // Score of one root move searched to depth within (alpha, beta), from the mover's side
+    int searchRootMove(BitboardPosition position, int move, int depth, int alpha, int beta) {
+        if (network != null) {
+            network.reset(position);
+            network.push(position, move);
+        }
+        if (leafBatcher != null) leafBatcher.enter();
+        lastReply = BitboardPosition.NO_MOVE;
+        position.makeMove(move);
+        try {
+            return -negamax(position, depth - 1, -beta, -alpha, 1);
+        } finally {
+            position.unmakeMove(move);
+            if (leafBatcher != null) leafBatcher.leave();
+        }
+    }
+
+    private int negamax(BitboardPosition position, int depth, int alpha, int beta, int ply) {
+        if ((++nodes & (CHECK_INTERVAL - 1)) == 0) {
+            checkLimits();
+        }
+        if (stopRequested) {
+            return 0;
+        }
+        if (position.getHalfmoveClock() >= 100 || position.isRepetition()) {
+            return 0;
+        }
+        // Tablebase values hold from a capture or pawn move, where the fifty-move count starts over
+        if (tablebase != null && position.getHalfmoveClock() == 0) {
+            int score = tablebase.probe(position, ply);
+            if (score != Tablebase.NO_SCORE) {
+                tablebaseHits++;
+                return score;
+            }
+        }
+        if (depth <= 0 || ply >= MAX_PLY) {
+            return QUIESCENCE ? quiescence(position, alpha, beta, ply) : staticScore(position);
+        }
+
+        long key = position.getKey();
+        long entry = table.probe(key);
+        int hashMove = TranspositionTable.move(entry);
+        if (entry != 0 && TranspositionTable.depth(entry) >= depth) {
+            int score = fromTable(TranspositionTable.score(entry), ply);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.BOUND_EXACT
+                    || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                    || (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) {
+                tableHits++;
+                if (ply == 1) lastReply = hashMove;
+                return score;
+            }
+        }
+
+        int start = ply * BitboardPosition.MAX_MOVES;
+        int end = position.generateLegalMoves(moveStack, start);
+        if (end == start) {
+            return position.isInCheck() ? -MATE + ply : 0;
+        }
+
+        int originalAlpha = alpha;
+        orderMoves(position, start, end, ply, hashMove);
+        boolean frontier = leafBatcher != null && (depth == 1 || ply + 1 >= MAX_PLY);
+        int best = -INFINITY;
+        int bestMove = BitboardPosition.NO_MOVE;
+        for (int i = start; i < end; i++) {
+            pickNext(i, end);
+            int move = moveStack[i];
+            // The first move often cuts off alone; if not, the remaining leaves go in one batch
+            if (frontier && i == start + 1) prefetchLeaves(position, i, end);
+
+            if (network != null) network.push(position, move);
+            position.makeMove(move);
+            int score = -negamax(position, depth - 1, -beta, -alpha, ply + 1);
+            position.unmakeMove(move);
+            if (network != null) network.pop();
+
+            if (score > best) {
+                best = score;
+                bestMove = move;
+                if (score > alpha) alpha = score;
+            }
+            if (alpha >= beta) {
+                cutoffs++;
+                if (!BitboardPosition.isCapture(move) && !BitboardPosition.isPromotion(move)) {
+                    recordCutoff(move, depth, ply);
+                }
+                break;
+            }
+        }
+        if (stopRequested) {
+            return 0; // scores from an interrupted subtree must not reach the table
+        }
+
+        int bound = (best >= beta) ? TranspositionTable.BOUND_LOWER
+                : (best > originalAlpha) ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+        table.store(key, bestMove, depth, bound, toTable(best, ply));
+        if (ply == 1) lastReply = bestMove;
+        return best;
+    }
+
+    // Captures (every move when in check) until the position is quiet, from the side to move's view
+    private int quiescence(BitboardPosition position, int alpha, int beta, int ply) {
+        boolean inCheck = position.isInCheck();
+        int best = -INFINITY;
+        if (!inCheck) {
+            // Standing pat: the side to move need not capture
+            best = staticScore(position);
+            if (best >= beta || ply >= MAX_PLY) return best;
+            if (best > alpha) alpha = best;
+        } else if (ply >= MAX_PLY) {
+            return staticScore(position);
+        }
+        int standPat = best;
+
+        int start = ply * BitboardPosition.MAX_MOVES;
+        int end = start;
+        int generated = position.generatePseudoLegalMoves(moveStack, start);
+        for (int i = start; i < generated; i++) {
+            int move = moveStack[i];
+            if (inCheck || BitboardPosition.isCapture(move) || BitboardPosition.isPromotion(move)) {
+                moveStack[end++] = move;
+            }
+        }
+        orderMoves(position, start, end, ply, BitboardPosition.NO_MOVE);
+
+        int us = position.getSideToMove();
+        boolean anyLegal = false;
+        for (int i = start; i < end; i++) {
+            pickNext(i, end);
+            int move = moveStack[i];
+            if (leafBatcher != null && i == start + 1) prefetchCaptures(position, i, end, standPat, alpha);
+            if (!inCheck && prunesCapture(position, move, standPat, alpha)) continue;
+
+            if (network != null) network.push(position, move);
+            position.makeMove(move);
+            if (position.isAttacked(position.kingSquare(us), us ^ 1)) {
+                position.unmakeMove(move);
+                if (network != null) network.pop();
+                continue;
+            }
+            anyLegal = true;
+            if ((++nodes & (CHECK_INTERVAL - 1)) == 0) {
+                checkLimits();
+            }
+            int score = -quiescence(position, -beta, -alpha, ply + 1);
+            position.unmakeMove(move);
+            if (network != null) network.pop();
+            if (stopRequested) return 0;
+
+            if (score > best) {
+                best = score;
+                if (score > alpha) alpha = score;
+            }
+            if (alpha >= beta) {
+                cutoffs++;
+                break;
+            }
+        }
+        if (inCheck && !anyLegal) return -MATE + ply;
+        return best;
+    }
+
+    private int staticScore(BitboardPosition position) {
+        return (network != null || leafBatcher != null) ? evaluateNetwork(position) : evaluate(position);
+    }
+
+    // Whether quiescence skips the capture move: it cannot lift standPat to alpha, or it loses
+    // material in the exchange that follows
+    private boolean prunesCapture(BitboardPosition position, int move, int standPat, int alpha) {
+        int victim = capturedValue(position, move);
+        if (!BitboardPosition.isPromotion(move) && standPat + victim + DELTA_MARGIN <= alpha) return true;
+        return SEE_VALUE[position.pieceAt(BitboardPosition.from(move)) % 6] > victim
+                && staticExchange(position, move) < 0;
+    }
+
+    private static int capturedValue(BitboardPosition position, int move) {
+        if (!BitboardPosition.isCapture(move)) return 0;
+        int captured = position.pieceAt(BitboardPosition.to(move));
+        return SEE_VALUE[(captured == BitboardPosition.NO_PIECE) ? BitboardPosition.PAWN : captured % 6]; // en passant
+    }
+
+    // Material the side to move wins by the capture move if both sides then keep recapturing on
+    // its target square with their least valuable attacker, stopping whenever that is better
+    // (the swap algorithm). Pins are ignored; sliders behind a capturer join in as it leaves.
+    int staticExchange(BitboardPosition position, int move) {
+        int from = BitboardPosition.from(move);
+        int to = BitboardPosition.to(move);
+        int[] gain = exchangeGains;
+        int d = 0;
+        gain[0] = capturedValue(position, move);
+        int attackerValue = SEE_VALUE[position.pieceAt(from) % 6];
+        if (BitboardPosition.isPromotion(move)) {
+            int promoted = SEE_VALUE[BitboardPosition.promotionType(move)];
+            gain[0] += promoted - SEE_VALUE[BitboardPosition.PAWN];
+            attackerValue = promoted;
+        }
+        long occupied = position.getOccupied();
+        long fromSet = 1L << from;
+        int side = position.getSideToMove();
+        while (true) {
+            d++;
+            gain[d] = attackerValue - gain[d - 1];
+            if (Math.max(-gain[d - 1], gain[d]) < 0 || d == gain.length - 1) break;
+            occupied ^= fromSet;
+            side ^= 1;
+            long attackers = attackersTo(position, to, occupied) & occupied;
+            fromSet = 0;
+            for (int type = BitboardPosition.PAWN; type <= BitboardPosition.KING; type++) {
+                long candidates = attackers & position.getPieces(side, type);
+                if (candidates != 0) {
+                    fromSet = candidates & -candidates;
+                    attackerValue = SEE_VALUE[type];
+                    break;
+                }
+            }
+            if (fromSet == 0) break;
+        }
+        while (--d > 0) {
+            gain[d - 1] = -Math.max(-gain[d - 1], gain[d]);
+        }
+        return gain[0];
+    }
+
+    // Pieces of both colours attacking sq, with sliders seen through the given occupancy
+    private static long attackersTo(BitboardPosition position, int sq, long occupied) {
+        long[] bb = position.getBitboards();
+        int b = 6; // black pieces follow the white ones
+        long diagonal = bb[BitboardPosition.BISHOP] | bb[b + BitboardPosition.BISHOP]
+                | bb[BitboardPosition.QUEEN] | bb[b + BitboardPosition.QUEEN];
+        long straight = bb[BitboardPosition.ROOK] | bb[b + BitboardPosition.ROOK]
+                | bb[BitboardPosition.QUEEN] | bb[b + BitboardPosition.QUEEN];
+        return (BitboardPosition.pawnAttacks(BitboardPosition.BLACK, sq) & bb[BitboardPosition.PAWN])
+                | (BitboardPosition.pawnAttacks(BitboardPosition.WHITE, sq) & bb[b + BitboardPosition.PAWN])
+                | (BitboardPosition.knightAttacks(sq) & (bb[BitboardPosition.KNIGHT] | bb[b + BitboardPosition.KNIGHT]))
+                | (BitboardPosition.kingAttacks(sq) & (bb[BitboardPosition.KING] | bb[b + BitboardPosition.KING]))
+                | (BitboardPosition.bishopAttacks(sq, occupied) & diagonal)
+                | (BitboardPosition.rookAttacks(sq, occupied) & straight);
+    }
+
+    // Mate and tablebase scores are stored relative to the node, not the root
+    private static int toTable(int score, int ply) {
+        if (score > DECISIVE_BOUND) return score + ply;
+        if (score < -DECISIVE_BOUND) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score > DECISIVE_BOUND) return score - ply;
+        if (score < -DECISIVE_BOUND) return score + ply;
+        return score;
+    }
+
+    private void orderMoves(BitboardPosition position, int start, int end, int ply, int hashMove) {
+        for (int i = start; i < end; i++) {
+            int move = moveStack[i];
+            int from = BitboardPosition.from(move);
+            int to = BitboardPosition.to(move);
+            if (move == hashMove) {
+                orderStack[i] = HASH_ORDER;
+            } else if (BitboardPosition.isCapture(move) || BitboardPosition.isPromotion(move)) {
+                int victim = 0;
+                if (BitboardPosition.isCapture(move)) {
+                    int captured = position.pieceAt(to);
+                    victim = (captured == BitboardPosition.NO_PIECE) ? PIECE_VALUE[BitboardPosition.PAWN] // en passant
+                            : PIECE_VALUE[captured % 6];
+                }
+                if (BitboardPosition.isPromotion(move)) victim += PIECE_VALUE[BitboardPosition.promotionType(move)];
+                int attacker = PIECE_VALUE[position.pieceAt(from) % 6];
+                orderStack[i] = CAPTURE_ORDER + victim * 10 - attacker / 10;
+            } else if (move == killers[ply][0]) {
+                orderStack[i] = KILLER_ORDER + 1;
+            } else if (move == killers[ply][1]) {
+                orderStack[i] = KILLER_ORDER;
+            } else {
+                orderStack[i] = history[from][to];
+            }
+        }
+    }
+
+    // Selection sort step: moves the best remaining move to index i
+    private void pickNext(int i, int end) {
+        int bestIndex = i;
+        for (int j = i + 1; j < end; j++) {
+            if (orderStack[j] > orderStack[bestIndex]) bestIndex = j;
+        }
+        if (bestIndex != i) {
+            int m = moveStack[i];
+            moveStack[i] = moveStack[bestIndex];
+            moveStack[bestIndex] = m;
+            int o = orderStack[i];
+            orderStack[i] = orderStack[bestIndex];
+            orderStack[bestIndex] = o;
+        }
+    }
+
+    private void recordCutoff(int move, int depth, int ply) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        int[] row = history[BitboardPosition.from(move)];
+        int to = BitboardPosition.to(move);
+        row[to] += depth * depth;
+        if (row[to] > HISTORY_LIMIT) {
+            for (int[] h : history) {
+                for (int j = 0; j < 64; j++) h[j] >>= 1;
+            }
+        }
+    }
+
+    // Scores the children of a frontier node from start on that are not cached yet in one batched
+    // request, so the leaves below find their scores in the EvalCache. Some of them may be cut off
+    // unsearched; that costs less than a model call per leaf.
+    private void prefetchLeaves(BitboardPosition position, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            int move = moveStack[i];
+            position.makeMove(move);
+            if (position.getHalfmoveClock() < 100 && !position.isRepetition()) count = queueLeaf(position, count);
+            position.unmakeMove(move);
+        }
+        flushLeaves(count);
+    }
+
+    // The same for the moves of a quiescence node from start on that it may still search, are
+    // legal and give no check, as the replies then stand pat first. standPat is -INFINITY when
+    // the node is in check; nothing is pruned then.
+    private void prefetchCaptures(BitboardPosition position, int start, int end, int standPat, int alpha) {
+        int us = position.getSideToMove();
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            int move = moveStack[i];
+            if (standPat > -INFINITY && prunesCapture(position, move, standPat, alpha)) continue;
+            position.makeMove(move);
+            if (!position.isAttacked(position.kingSquare(us), us ^ 1) && !position.isInCheck()) {
+                count = queueLeaf(position, count);
+            }
+            position.unmakeMove(move);
+        }
+        flushLeaves(count);
+    }
+
+    // Encodes position into the next slot of the batch unless the EvalCache has it; the new count
+    private int queueLeaf(BitboardPosition position, int count) {
+        long key = position.getKey();
+        if (!Float.isNaN(evalCache.get(key))) return count;
+        BoardEncoder.encode(position.getBitboards(), leafRequest.planes, count);
+        leafKeys[count] = key;
+        return count + 1;
+    }
+
+    private void flushLeaves(int count) {
+        if (count == 0) return;
+        float[] scores = leafBatcher.evaluate(leafRequest, count);
+        for (int i = 0; i < count; i++) {
+            evalCache.put(leafKeys[i], scores[i]);
+        }
+    }
+
+    // The model scores in pawns from White's side; kept clear of the mate range
+    private int evaluateNetwork(BitboardPosition position) {
+        float output = (evalCache != null) ? evalCache.get(position.getKey()) : Float.NaN;
+        if (Float.isNaN(output)) {
+            if (network != null) {
+                output = network.evaluate();
+            } else {
+                // Not prefetched, or evicted since
+                BoardEncoder.encode(position.getBitboards(), leafRequest.planes, 0);
+                output = leafBatcher.evaluate(leafRequest, 1)[0];
+            }
+            if (evalCache != null) evalCache.put(position.getKey(), output);
+        } else {
+            evalCacheHits++;
+        }
+        int score = Math.round(output * 100);
+        score = Math.max(-MATE / 2, Math.min(MATE / 2, score));
+        return (position.getSideToMove() == BitboardPosition.WHITE) ? score : -score;
+    }
+
+    // Material plus a small centralisation bonus, from the side to move's point of view
+    public static int evaluate(BitboardPosition position) {
+        int score = 0;
+        for (int type = BitboardPosition.PAWN; type <= BitboardPosition.QUEEN; type++) {
+            long white = position.getPieces(BitboardPosition.WHITE, type);
+            long black = position.getPieces(BitboardPosition.BLACK, type);
+            score += PIECE_VALUE[type] * (Long.bitCount(white) - Long.bitCount(black));
+            if (type <= BitboardPosition.BISHOP) {
+                for (; white != 0; white &= white - 1) score += CENTRE_BONUS[Long.numberOfTrailingZeros(white)];
+                for (; black != 0; black &= black - 1) score -= CENTRE_BONUS[Long.numberOfTrailingZeros(black)];
+            }
+        }
+        return (position.getSideToMove() == BitboardPosition.WHITE) ? score : -score;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    // Beta cutoffs in the last search
+    public long getCutoffCount() {
+        return cutoffs;
+    }
+
+    // Nodes answered by a transposition table entry in the last search
+    public long getTableHitCount() {
+        return tableHits;
+    }
+
+    // Nodes answered by the tablebases in the last search
+    public long getTablebaseHitCount() {
+        return tablebaseHits;
+    }
+
+    // Leaves whose network score came from the EvalCache in the last search
+    public long getEvalCacheHitCount() {
+        return evalCacheHits;
+    }
+
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    // The reply the last finished depth expects to the best move, or NO_MOVE if it has none
+    public int getPonderMove() {
+        return ponderMove;
+    }
+
+    // The best reply to the move of the last searchRootMove, if it searched one ply further
+    int getLastReply() {
+        return lastReply;
+    }
+}
@@ -0,0 +1,620 @@
+import java.util.Arrays;
+
+import chesspresso.position.Position;
+
+/**
+ * Headless chess position on 64-bit bitboards with make/unmake and a legal move generator that
+ * writes into a caller-supplied int[] buffer. Squares are numbered a1 = 0 to h8 = 63 like
+ * chesspresso, and pieces follow BoardEncoder plane order (PNBRQK for white, then black), so
+ * getBitboards() can be encoded directly and getKey() equals Zobrist.hash of the same position.
+ *
+ * A move is an int: from (bits 0-5), to (6-11) and a 4-bit flag (12-15); it always fits in
+ * 16 bits, which is what the transposition table stores.
+ */
+public class BitboardPosition {
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+    public static final int NO_PIECE = -1;
+
+    // Castling rights
+    public static final int WHITE_SHORT = 1;
+    public static final int WHITE_LONG = 2;
+    public static final int BLACK_SHORT = 4;
+    public static final int BLACK_LONG = 8;
+
+    // Move flags
+    public static final int QUIET = 0;
+    public static final int DOUBLE_PUSH = 1;
+    public static final int KING_CASTLE = 2;
+    public static final int QUEEN_CASTLE = 3;
+    public static final int CAPTURE = 4;
+    public static final int EP_CAPTURE = 5;
+    public static final int PROMOTION = 8; // low two bits select N, B, R, Q; plus CAPTURE for promotion captures
+
+    public static final int NO_MOVE = 0;
+
+    // Upper bound on legal moves in any position, for sizing move buffers
+    public static final int MAX_MOVES = 256;
+
+    public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private static final String PIECE_CHARS = "PNBRQKpnbrqk";
+    private static final int INITIAL_HISTORY = 1024;
+
+    private static final long[] KNIGHT_ATTACKS = new long[64];
+    private static final long[] KING_ATTACKS = new long[64];
+    private static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    // Rays by direction: N, NE, E, SE, S, SW, W, NW; the first three and NW run towards higher squares
+    private static final long[][] RAYS = new long[8][64];
+    private static final int[] RAY_FILE_STEP = { 0, 1, 1, 1, 0, -1, -1, -1 };
+    private static final int[] RAY_RANK_STEP = { 1, 1, 0, -1, -1, -1, 0, 1 };
+    private static final int[] BISHOP_DIRECTIONS = { 1, 3, 5, 7 };
+    private static final int[] ROOK_DIRECTIONS = { 0, 2, 4, 6 };
+
+    // Rights kept when a piece moves from or to a square; only king and rook squares clear any
+    private static final int[] CASTLING_MASK = new int[64];
+
+    static {
+        int[][] knightSteps = { { 1, 2 }, { 2, 1 }, { 2, -1 }, { 1, -2 }, { -1, -2 }, { -2, -1 }, { -2, 1 }, { -1, 2 } };
+        for (int sq = 0; sq < 64; sq++) {
+            int file = sq & 7;
+            int rank = sq >>> 3;
+            for (int[] step : knightSteps) {
+                KNIGHT_ATTACKS[sq] |= bit(file + step[0], rank + step[1]);
+            }
+            for (int df = -1; df <= 1; df++) {
+                for (int dr = -1; dr <= 1; dr++) {
+                    if (df != 0 || dr != 0) KING_ATTACKS[sq] |= bit(file + df, rank + dr);
+                }
+            }
+            PAWN_ATTACKS[WHITE][sq] = bit(file - 1, rank + 1) | bit(file + 1, rank + 1);
+            PAWN_ATTACKS[BLACK][sq] = bit(file - 1, rank - 1) | bit(file + 1, rank - 1);
+            for (int dir = 0; dir < 8; dir++) {
+                for (int f = file + RAY_FILE_STEP[dir], r = rank + RAY_RANK_STEP[dir];
+                        f >= 0 && f < 8 && r >= 0 && r < 8;
+                        f += RAY_FILE_STEP[dir], r += RAY_RANK_STEP[dir]) {
+                    RAYS[dir][sq] |= 1L << (r * 8 + f);
+                }
+            }
+            CASTLING_MASK[sq] = 15;
+        }
+        CASTLING_MASK[4] &= ~(WHITE_SHORT | WHITE_LONG);
+        CASTLING_MASK[7] &= ~WHITE_SHORT;
+        CASTLING_MASK[0] &= ~WHITE_LONG;
+        CASTLING_MASK[60] &= ~(BLACK_SHORT | BLACK_LONG);
+        CASTLING_MASK[63] &= ~BLACK_SHORT;
+        CASTLING_MASK[56] &= ~BLACK_LONG;
+    }
+
+    private final long[] pieces = new long[12];
+    private final long[] colors = new long[2];
+    private long occupied;
+    private final int[] squares = new int[64];
+
+    private int side;
+    private int castling;
+    private int epSquare = -1;
+    private int halfmoveClock;
+    private int fullmoveNumber = 1;
+    private long key;
+
+    // State that unmakeMove cannot recompute, one entry per move made; grown for long games
+    private int[] undoCaptured = new int[INITIAL_HISTORY];
+    private int[] undoCastling = new int[INITIAL_HISTORY];
+    private int[] undoEpSquare = new int[INITIAL_HISTORY];
+    private int[] undoHalfmove = new int[INITIAL_HISTORY];
+    private long[] undoKey = new long[INITIAL_HISTORY];
+    private int historyLength;
+
+    public BitboardPosition() {
+        this(START_FEN);
+    }
+
+    public BitboardPosition(String fen) {
+        setFEN(fen);
+    }
+
+    public BitboardPosition(BitboardPosition other) {
+        System.arraycopy(other.pieces, 0, pieces, 0, 12);
+        System.arraycopy(other.squares, 0, squares, 0, 64);
+        colors[WHITE] = other.colors[WHITE];
+        colors[BLACK] = other.colors[BLACK];
+        occupied = other.occupied;
+        side = other.side;
+        castling = other.castling;
+        epSquare = other.epSquare;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        key = other.key;
+        historyLength = other.historyLength;
+        if (historyLength > undoKey.length) growHistory(other.undoKey.length);
+        System.arraycopy(other.undoKey, 0, undoKey, 0, historyLength);
+        System.arraycopy(other.undoCaptured, 0, undoCaptured, 0, historyLength);
+        System.arraycopy(other.undoCastling, 0, undoCastling, 0, historyLength);
+        System.arraycopy(other.undoEpSquare, 0, undoEpSquare, 0, historyLength);
+        System.arraycopy(other.undoHalfmove, 0, undoHalfmove, 0, historyLength);
+    }
+
+    public static BitboardPosition fromPosition(Position position) {
+        return new BitboardPosition(position.getFEN());
+    }
+
+    // ======================================================================
+    // Moves
+
+    public static int move(int from, int to, int flags) {
+        return from | (to << 6) | (flags << 12);
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    public static int flags(int move) {
+        return (move >>> 12) & 15;
+    }
+
+    public static boolean isCapture(int move) {
+        return (flags(move) & CAPTURE) != 0;
+    }
+
+    public static boolean isPromotion(int move) {
+        return (flags(move) & PROMOTION) != 0;
+    }
+
+    // Piece type (KNIGHT to QUEEN) of a promotion move
+    public static int promotionType(int move) {
+        return KNIGHT + (flags(move) & 3);
+    }
+
+    // Long algebraic notation as used by UCI, e.g. e2e4 or e7e8q
+    public static String toUci(int move) {
+        StringBuilder sb = new StringBuilder(5);
+        sb.append(squareName(from(move))).append(squareName(to(move)));
+        if (isPromotion(move)) sb.append("nbrq".charAt(promotionType(move) - KNIGHT));
+        return sb.toString();
+    }
+
+    // Legal move matching the UCI string, or NO_MOVE
+    public int parseUci(String uci) {
+        int[] moves = new int[MAX_MOVES];
+        int count = generateLegalMoves(moves, 0);
+        for (int i = 0; i < count; i++) {
+            if (toUci(moves[i]).equals(uci)) return moves[i];
+        }
+        return NO_MOVE;
+    }
+
+    public static String squareName(int sq) {
+        return "" + (char) ('a' + (sq & 7)) + (char) ('1' + (sq >>> 3));
+    }
+
+    // ======================================================================
+    // Move generation
+
+    // Writes all legal moves from index start and returns the index after the last one
+    public int generateLegalMoves(int[] moves, int start) {
+        int end = generatePseudoLegalMoves(moves, start);
+        int us = side;
+        int legal = start;
+        for (int i = start; i < end; i++) {
+            int m = moves[i];
+            makeMove(m);
+            if (!isAttacked(kingSquare(us), us ^ 1)) moves[legal++] = m;
+            unmakeMove(m);
+        }
+        return legal;
+    }
+
+    // Moves that may leave the own king in check; castling is already fully checked
+    public int generatePseudoLegalMoves(int[] moves, int start) {
+        int n = start;
+        int us = side;
+        int them = us ^ 1;
+        long own = colors[us];
+        long enemy = colors[them];
+        int base = us * 6;
+
+        int forward = (us == WHITE) ? 8 : -8;
+        int startRank = (us == WHITE) ? 1 : 6;
+        int lastRank = (us == WHITE) ? 7 : 0;
+        for (long bb = pieces[base + PAWN]; bb != 0; bb &= bb - 1) {
+            int from = Long.numberOfTrailingZeros(bb);
+            int one = from + forward;
+            if (squares[one] == NO_PIECE) {
+                if ((one >>> 3) == lastRank) {
+                    n = addPromotions(moves, n, from, one, 0);
+                } else {
+                    moves[n++] = move(from, one, QUIET);
+                    int two = one + forward;
+                    if ((from >>> 3) == startRank && squares[two] == NO_PIECE) {
+                        moves[n++] = move(from, two, DOUBLE_PUSH);
+                    }
+                }
+            }
+            for (long targets = PAWN_ATTACKS[us][from] & enemy; targets != 0; targets &= targets - 1) {
+                int to = Long.numberOfTrailingZeros(targets);
+                if ((to >>> 3) == lastRank) {
+                    n = addPromotions(moves, n, from, to, CAPTURE);
+                } else {
+                    moves[n++] = move(from, to, CAPTURE);
+                }
+            }
+            if (epSquare >= 0 && (PAWN_ATTACKS[us][from] & (1L << epSquare)) != 0) {
+                moves[n++] = move(from, epSquare, EP_CAPTURE);
+            }
+        }
+
+        for (long bb = pieces[base + KNIGHT]; bb != 0; bb &= bb - 1) {
+            int from = Long.numberOfTrailingZeros(bb);
+            n = addMoves(moves, n, from, KNIGHT_ATTACKS[from] & ~own, enemy);
+        }
+        for (long bb = pieces[base + BISHOP] | pieces[base + QUEEN]; bb != 0; bb &= bb - 1) {
+            int from = Long.numberOfTrailingZeros(bb);
+            n = addMoves(moves, n, from, bishopAttacks(from, occupied) & ~own, enemy);
+        }
+        for (long bb = pieces[base + ROOK] | pieces[base + QUEEN]; bb != 0; bb &= bb - 1) {
+            int from = Long.numberOfTrailingZeros(bb);
+            n = addMoves(moves, n, from, rookAttacks(from, occupied) & ~own, enemy);
+        }
+
+        int king = kingSquare(us);
+        n = addMoves(moves, n, king, KING_ATTACKS[king] & ~own, enemy);
+
+        int shortRight = (us == WHITE) ? WHITE_SHORT : BLACK_SHORT;
+        int longRight = (us == WHITE) ? WHITE_LONG : BLACK_LONG;
+        if ((castling & (shortRight | longRight)) != 0 && !isAttacked(king, them)) {
+            if ((castling & shortRight) != 0
+                    && squares[king + 1] == NO_PIECE && squares[king + 2] == NO_PIECE
+                    && !isAttacked(king + 1, them) && !isAttacked(king + 2, them)) {
+                moves[n++] = move(king, king + 2, KING_CASTLE);
+            }
+            if ((castling & longRight) != 0
+                    && squares[king - 1] == NO_PIECE && squares[king - 2] == NO_PIECE
+                    && squares[king - 3] == NO_PIECE
+                    && !isAttacked(king - 1, them) && !isAttacked(king - 2, them)) {
+                moves[n++] = move(king, king - 2, QUEEN_CASTLE);
+            }
+        }
+        return n;
+    }
+
+    private static int addPromotions(int[] moves, int n, int from, int to, int capture) {
+        for (int type = QUEEN; type >= KNIGHT; type--) {
+            moves[n++] = move(from, to, PROMOTION | capture | (type - KNIGHT));
+        }
+        return n;
+    }
+
+    private static int addMoves(int[] moves, int n, int from, long targets, long enemy) {
+        for (; targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            moves[n++] = move(from, to, ((enemy >>> to) & 1) != 0 ? CAPTURE : QUIET);
+        }
+        return n;
+    }
+
+    // ======================================================================
+    // Attacks
+
+    public boolean isAttacked(int sq, int by) {
+        int base = by * 6;
+        return (PAWN_ATTACKS[by ^ 1][sq] & pieces[base + PAWN]) != 0
+                || (KNIGHT_ATTACKS[sq] & pieces[base + KNIGHT]) != 0
+                || (KING_ATTACKS[sq] & pieces[base + KING]) != 0
+                || (bishopAttacks(sq, occupied) & (pieces[base + BISHOP] | pieces[base + QUEEN])) != 0
+                || (rookAttacks(sq, occupied) & (pieces[base + ROOK] | pieces[base + QUEEN])) != 0;
+    }
+
+    public boolean isInCheck() {
+        return isAttacked(kingSquare(side), side ^ 1);
+    }
+
+    public static long bishopAttacks(int sq, long occupied) {
+        return slidingAttacks(sq, occupied, BISHOP_DIRECTIONS);
+    }
+
+    public static long rookAttacks(int sq, long occupied) {
+        return slidingAttacks(sq, occupied, ROOK_DIRECTIONS);
+    }
+
+    public static long knightAttacks(int sq) {
+        return KNIGHT_ATTACKS[sq];
+    }
+
+    public static long kingAttacks(int sq) {
+        return KING_ATTACKS[sq];
+    }
+
+    public static long pawnAttacks(int color, int sq) {
+        return PAWN_ATTACKS[color][sq];
+    }
+
+    // Each ray stops at its first blocker, which is included
+    private static long slidingAttacks(int sq, long occupied, int[] directions) {
+        long attacks = 0;
+        for (int dir : directions) {
+            long ray = RAYS[dir][sq];
+            long blockers = ray & occupied;
+            if (blockers != 0) {
+                int blocker = (dir <= 2 || dir == 7)
+                        ? Long.numberOfTrailingZeros(blockers)
+                        : 63 - Long.numberOfLeadingZeros(blockers);
+                ray ^= RAYS[dir][blocker];
+            }
+            attacks |= ray;
+        }
+        return attacks;
+    }
+
+    // ======================================================================
+    // Make / unmake
+
+    public void makeMove(int move) {
+        int from = from(move);
+        int to = to(move);
+        int flags = flags(move);
+        int us = side;
+        int them = us ^ 1;
+        int piece = squares[from];
+
+        if (historyLength == undoKey.length) growHistory(2 * historyLength);
+        undoCastling[historyLength] = castling;
+        undoEpSquare[historyLength] = epSquare;
+        undoHalfmove[historyLength] = halfmoveClock;
+        undoKey[historyLength] = key;
+
+        int captured = NO_PIECE;
+        if (flags == EP_CAPTURE) {
+            int capturedSquare = to - ((us == WHITE) ? 8 : -8);
+            captured = squares[capturedSquare];
+            removePiece(capturedSquare);
+        } else if ((flags & CAPTURE) != 0) {
+            captured = squares[to];
+            removePiece(to);
+        }
+        undoCaptured[historyLength++] = captured;
+
+        removePiece(from);
+        addPiece(to, isPromotion(move) ? us * 6 + promotionType(move) : piece);
+        if (flags == KING_CASTLE) {
+            removePiece(to + 1);
+            addPiece(to - 1, us * 6 + ROOK);
+        } else if (flags == QUEEN_CASTLE) {
+            removePiece(to - 2);
+            addPiece(to + 1, us * 6 + ROOK);
+        }
+
+        key ^= Zobrist.CASTLING[castling];
+        if (epSquare >= 0) key ^= Zobrist.EN_PASSANT_FILE[epSquare & 7];
+        castling &= CASTLING_MASK[from] & CASTLING_MASK[to];
+        epSquare = -1;
+        if (flags == DOUBLE_PUSH) {
+            // Only recorded when a capture is possible, so equal positions get equal keys
+            int passed = (from + to) >>> 1;
+            if ((PAWN_ATTACKS[us][passed] & pieces[them * 6 + PAWN]) != 0) epSquare = passed;
+        }
+        key ^= Zobrist.CASTLING[castling];
+        if (epSquare >= 0) key ^= Zobrist.EN_PASSANT_FILE[epSquare & 7];
+
+        halfmoveClock = (piece % 6 == PAWN || captured != NO_PIECE) ? 0 : halfmoveClock + 1;
+        if (us == BLACK) fullmoveNumber++;
+        side = them;
+        key ^= Zobrist.BLACK_TO_MOVE;
+    }
+
+    public void unmakeMove(int move) {
+        int from = from(move);
+        int to = to(move);
+        int flags = flags(move);
+        int us = side ^ 1;
+        side = us;
+        if (us == BLACK) fullmoveNumber--;
+
+        historyLength--;
+        if (flags == KING_CASTLE) {
+            removePiece(to - 1);
+            addPiece(to + 1, us * 6 + ROOK);
+        } else if (flags == QUEEN_CASTLE) {
+            removePiece(to + 1);
+            addPiece(to - 2, us * 6 + ROOK);
+        }
+        int piece = isPromotion(move) ? us * 6 + PAWN : squares[to];
+        removePiece(to);
+        addPiece(from, piece);
+
+        int captured = undoCaptured[historyLength];
+        if (captured != NO_PIECE) {
+            addPiece(flags == EP_CAPTURE ? to - ((us == WHITE) ? 8 : -8) : to, captured);
+        }
+
+        castling = undoCastling[historyLength];
+        epSquare = undoEpSquare[historyLength];
+        halfmoveClock = undoHalfmove[historyLength];
+        key = undoKey[historyLength];
+    }
+
+    private void growHistory(int capacity) {
+        undoCaptured = Arrays.copyOf(undoCaptured, capacity);
+        undoCastling = Arrays.copyOf(undoCastling, capacity);
+        undoEpSquare = Arrays.copyOf(undoEpSquare, capacity);
+        undoHalfmove = Arrays.copyOf(undoHalfmove, capacity);
+        undoKey = Arrays.copyOf(undoKey, capacity);
+    }
+
+    private void addPiece(int sq, int piece) {
+        long b = 1L << sq;
+        pieces[piece] |= b;
+        colors[piece / 6] |= b;
+        occupied |= b;
+        squares[sq] = piece;
+        key ^= Zobrist.PIECE_SQUARE[piece][sq];
+    }
+
+    private void removePiece(int sq) {
+        int piece = squares[sq];
+        long b = ~(1L << sq);
+        pieces[piece] &= b;
+        colors[piece / 6] &= b;
+        occupied &= b;
+        squares[sq] = NO_PIECE;
+        key ^= Zobrist.PIECE_SQUARE[piece][sq];
+    }
+
+    // ======================================================================
+    // State
+
+    // True if the current position occurred before since the last capture or pawn move
+    public boolean isRepetition() {
+        for (int i = historyLength - 2, stop = historyLength - halfmoveClock; i >= 0 && i >= stop; i -= 2) {
+            if (undoKey[i] == key) return true;
+        }
+        return false;
+    }
+
+    public int kingSquare(int color) {
+        return Long.numberOfTrailingZeros(pieces[color * 6 + KING]);
+    }
+
+    // Piece index (type + 6 * colour) on sq, or NO_PIECE
+    public int pieceAt(int sq) {
+        return squares[sq];
+    }
+
+    // The 12 piece bitboards in BoardEncoder plane order; owned by this position, do not modify
+    public long[] getBitboards() {
+        return pieces;
+    }
+
+    public long getPieces(int color, int type) {
+        return pieces[color * 6 + type];
+    }
+
+    public long getOccupied(int color) {
+        return colors[color];
+    }
+
+    public long getOccupied() {
+        return occupied;
+    }
+
+    public int getSideToMove() {
+        return side;
+    }
+
+    public int getCastling() {
+        return castling;
+    }
+
+    public int getEpSquare() {
+        return epSquare;
+    }
+
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    // ======================================================================
+    // FEN
+
+    public void setFEN(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        Arrays.fill(pieces, 0);
+        Arrays.fill(squares, NO_PIECE);
+        colors[WHITE] = 0;
+        colors[BLACK] = 0;
+        occupied = 0;
+        key = 0;
+        historyLength = 0;
+
+        int sq = 56;
+        for (char c : fields[0].toCharArray()) {
+            if (c == '/') {
+                sq -= 16;
+            } else if (c >= '1' && c <= '8') {
+                sq += c - '0';
+            } else {
+                int piece = PIECE_CHARS.indexOf(c);
+                if (piece < 0) throw new IllegalArgumentException("Bad piece '" + c + "' in FEN: " + fen);
+                addPiece(sq++, piece);
+            }
+        }
+
+        side = (fields.length > 1 && fields[1].equals("b")) ? BLACK : WHITE;
+        castling = 0;
+        if (fields.length > 2) {
+            for (char c : fields[2].toCharArray()) {
+                if (c == 'K') castling |= WHITE_SHORT;
+                else if (c == 'Q') castling |= WHITE_LONG;
+                else if (c == 'k') castling |= BLACK_SHORT;
+                else if (c == 'q') castling |= BLACK_LONG;
+            }
+        }
+        epSquare = -1;
+        if (fields.length > 3 && !fields[3].equals("-")) {
+            int passed = (fields[3].charAt(0) - 'a') + 8 * (fields[3].charAt(1) - '1');
+            if ((PAWN_ATTACKS[side ^ 1][passed] & pieces[side * 6 + PAWN]) != 0) epSquare = passed;
+        }
+        halfmoveClock = (fields.length > 4) ? Integer.parseInt(fields[4]) : 0;
+        fullmoveNumber = (fields.length > 5) ? Integer.parseInt(fields[5]) : 1;
+
+        key ^= Zobrist.CASTLING[castling];
+        if (epSquare >= 0) key ^= Zobrist.EN_PASSANT_FILE[epSquare & 7];
+        if (side == BLACK) key ^= Zobrist.BLACK_TO_MOVE;
+    }
+
+    public String getFEN() {
+        StringBuilder fen = new StringBuilder();
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int piece = squares[rank * 8 + file];
+                if (piece == NO_PIECE) {
+                    empty++;
+                } else {
+                    if (empty > 0) {
+                        fen.append(empty);
+                        empty = 0;
+                    }
+                    fen.append(PIECE_CHARS.charAt(piece));
+                }
+            }
+            if (empty > 0) fen.append(empty);
+            if (rank > 0) fen.append('/');
+        }
+        fen.append(side == WHITE ? " w " : " b ");
+        if (castling == 0) fen.append('-');
+        if ((castling & WHITE_SHORT) != 0) fen.append('K');
+        if ((castling & WHITE_LONG) != 0) fen.append('Q');
+        if ((castling & BLACK_SHORT) != 0) fen.append('k');
+        if ((castling & BLACK_LONG) != 0) fen.append('q');
+        fen.append(' ').append(epSquare >= 0 ? squareName(epSquare) : "-");
+        fen.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber);
+        return fen.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getFEN();
+    }
+
+    private static long bit(int file, int rank) {
+        return (file >= 0 && file < 8 && rank >= 0 && rank < 8) ? 1L << (rank * 8 + file) : 0;
+    }
+}
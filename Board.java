@@ -1,9 +1,14 @@
 import java.awt.*;
+import java.awt.event.ActionEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.swing.*;
 
 import chesspresso.move.Move;
@@ -45,6 +50,18 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
     private static final String RESOURCES_BPAWN_PNG = "resources/bpawn.png";
 
     private static final int DEPTH_LEVEL = 3;
+
+    // -Dchess.search=minmax selects the original full-width minimax, e.g. to compare node counts
+    private static final boolean LEGACY_SEARCH = "minmax".equals(System.getProperty("chess.search"));
+
+    // Time the computer may think per move, or with -Dchess.clock (and -Dchess.increment) the
+    // milliseconds each side has for the whole game, in which case the search budgets its own time
+    private static final long MOVE_TIME_MS = Long.getLong("chess.movetime", 5000);
+    private static final long CLOCK_MS = Long.getLong("chess.clock", 0);
+    private static final long INCREMENT_MS = Long.getLong("chess.increment", 0);
+
+    // -Dchess.ponder=true searches the human's predicted reply while they think
+    private static final boolean PONDER = Boolean.getBoolean("chess.ponder");
     private Map<Square, Float> moveQualityMap = new HashMap<>();
 
     
@@ -69,6 +86,34 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
 
     private CheckmateDetector cmd;
 
+    // Created on the first click; backed by the shared, already loaded model sessions
+    private MoveScorer scorer;
+
+    // Scores White's overlays in the background from the start of each turn
+    private final OverlayPrescorer prescorer = new OverlayPrescorer();
+    private int hoverSqi = -1;
+
+    private final ParallelSearch search = new ParallelSearch();
+    private long minMaxNodes;
+
+    // Set while the computer is thinking; the board ignores the mouse until it has moved
+    private SwingWorker<Integer, SearchInfo> searchWorker;
+    private volatile boolean thinkingStopped;
+    private long whiteClock = CLOCK_MS;
+    private long blackClock = CLOCK_MS;
+    private long turnStarted;
+
+    // The background search of the position after the predicted human move, and that position's
+    // placement and side to move; a guess of NO_MOVE only warms the tables
+    private SwingWorker<Integer, Void> ponderWorker;
+    private String ponderTarget;
+    private int ponderHits;
+    private int ponderMisses;
+
+    // The game as played, kept in step with the Square grid by syncGame, so the search sees the
+    // moves that led here, castling rights and the halfmove clock
+    private BitboardPosition game = new BitboardPosition();
+
     public Board(GameWindow g) {
         initializeBoard(g);
     }
@@ -93,6 +138,15 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
         this.addMouseListener(this);
         this.addMouseMotionListener(this);
 
+        // Escape makes the computer play the best move it has found so far
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("ESCAPE"), "stopThinking");
+        getActionMap().put("stopThinking", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                stopThinking();
+            }
+        });
+
         for (int x = 0; x < 8; x++) {
             for (int y = 0; y < 8; y++) {
                 int xMod = x % 2;
@@ -116,7 +170,11 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
         this.setSize(new Dimension(400, 400));
 
         whiteTurn = true;
+        turnStarted = System.currentTimeMillis();
 
+        // Load the evaluation model while the user looks at the opening position
+        EvaluatorService.preloadShared();
+        prescorer.start(getFEN());
     }
 
     private void initializePieces() {
@@ -206,6 +264,7 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
 
     @Override
     public void mousePressed(MouseEvent e) {
+        if (searchWorker != null) return;
         currX = e.getX();
         currY = e.getY();
 
@@ -216,31 +275,25 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
 
         try {
             String currentFEN = getFEN();
-            Position before = new Position(currentFEN);
             int fromSqi = (7 - sq.getYNum()) * 8 + sq.getXNum();
-            MoveScorer scorer = new MoveScorer("ml_model/model.onnx");
-            float currentEval = scorer.getEvaluator().evaluateFEN(currentFEN);
             moveQualityMap.clear();
-            short[] legalMoves = before.getAllMoves();
-
-            for (short move : legalMoves) {
-                if (Move.getFromSqi(move) != fromSqi) continue;
-                before.doMove(move);
-                String nextFEN = before.getFEN();
-                float nextEval = scorer.getEvaluator().evaluateFEN(nextFEN);
-                float delta = nextEval - currentEval;
-                float quality = (float)(1.0 / (1.0 + Math.exp(-delta)));
-                before.undoMove();
-
-                int to = Move.getToSqi(move);
+
+            // Usually prescored since the turn began; otherwise all moves of the clicked piece are
+            // scored now in one batched model call
+            List<MoveScorer.ScoredMove> moves = prescorer.get(currentFEN, fromSqi);
+            if (moves == null) {
+                if (scorer == null) scorer = new MoveScorer(EvaluatorService.getShared());
+                moves = scorer.scoreMoves(new Position(currentFEN), fromSqi);
+            }
+            for (MoveScorer.ScoredMove scored : moves) {
+                int to = Move.getToSqi(scored.move);
                 int row = 7 - (to / 8);
                 int col = to % 8;
-                moveQualityMap.put(board[row][col], quality);
-                System.out.printf("[AI] Suggested: %s (Quality: %.3f)\n", Move.getString(move), quality);
+                moveQualityMap.put(board[row][col], scored.quality);
+                if (Log.DEBUG) Log.debug("Suggested: %s (quality %.3f)", scored.moveSAN, scored.quality);
             }
-            scorer.close();
         } catch (Exception ex) {
-            ex.printStackTrace();
+            Log.warn("Cannot score the moves of the clicked piece", ex);
         }
 
         repaint();
@@ -456,11 +509,9 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
 
     private Pair<Integer, Square> MinMax_SelectSquare(Piece chessPiece, boolean turnSelector, int depthLevel,
             String prevPos) {
+        minMaxNodes++;
 
-        // Get the Game Tree Depth from UI
-        String strDepth = g.depth.getText();
-        int gameTreeDepth = Integer.parseInt(strDepth.substring(17).trim());
-        gameTreeDepth = (gameTreeDepth > 0) ? gameTreeDepth : DEPTH_LEVEL;
+        int gameTreeDepth = getGameTreeDepth();
         if (depthLevel > gameTreeDepth) {
             // Return MinMax Value if Depth Limit has reached
             int valMinMax = MinMax_CalcVal(turnSelector);
@@ -536,6 +587,296 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
         }
     }
 
+    // Get the Game Tree Depth from UI
+    private int getGameTreeDepth() {
+        String strDepth = g.depth.getText();
+        int gameTreeDepth = Integer.parseInt(strDepth.substring(17).trim());
+        return (gameTreeDepth > 0) ? gameTreeDepth : DEPTH_LEVEL;
+    }
+
+    private Square squareAt(int sqi) {
+        return board[7 - (sqi / 8)][sqi % 8];
+    }
+
+    // Root moves the GUI pieces can actually play; a pawn that reaches the last rank only becomes
+    // a queen there, so underpromotions are left out
+    private int[] playableRootMoves(BitboardPosition position) {
+        int[] legalMoves = new int[BitboardPosition.MAX_MOVES];
+        int legalCount = position.generateLegalMoves(legalMoves, 0);
+        int[] rootMoves = new int[legalCount];
+        int count = 0;
+        movable = cmd.getAllowableSquares(whiteTurn);
+        for (int i = 0; i < legalCount; i++) {
+            int move = legalMoves[i];
+            if (BitboardPosition.isPromotion(move) && BitboardPosition.promotionType(move) != BitboardPosition.QUEEN) {
+                continue;
+            }
+            Piece piece = squareAt(BitboardPosition.from(move)).getOccupyingPiece();
+            Square sq = squareAt(BitboardPosition.to(move));
+            if (piece != null && piece.getLegalMoves(this).contains(sq) && movable.contains(sq)
+                    && cmd.testMove(piece, sq)) {
+                rootMoves[count++] = move;
+            }
+        }
+        return Arrays.copyOf(rootMoves, count);
+    }
+
+    private SearchLimits getSearchLimits() {
+        SearchLimits limits = SearchLimits.depth(getGameTreeDepth());
+        if (CLOCK_MS > 0) {
+            limits.whiteTimeMillis = whiteClock;
+            limits.blackTimeMillis = blackClock;
+            limits.whiteIncrementMillis = INCREMENT_MS;
+            limits.blackIncrementMillis = INCREMENT_MS;
+        } else {
+            limits.moveTimeMillis = MOVE_TIME_MS;
+        }
+        return limits;
+    }
+
+    // Starts the computer's move on a worker thread. The search runs on a headless copy of the
+    // position and reports each finished depth; the Square grid is only touched again in done(),
+    // back on the EDT. Returns false if there is no move to search.
+    private boolean startComputerMove(final String prevText) {
+        final BitboardPosition position = new BitboardPosition(game);
+        final String fen = position.getFEN();
+        final int[] rootMoves = playableRootMoves(position);
+        if (rootMoves.length == 0) {
+            stopPondering();
+            return false;
+        }
+        final SearchLimits limits = getSearchLimits();
+        final boolean watch = g.watchMoves.isSelected();
+
+        // A book move is played without searching, so any ponder is of no use
+        final int bookMove = bookMove(position, rootMoves);
+
+        // A ponder hit keeps its search running; after a miss it is stopped and the new search
+        // starts on the tables it warmed. Either way the worker waits for it to end first.
+        final SwingWorker<Integer, Void> ponder = ponderWorker;
+        final boolean hit = bookMove == BitboardPosition.NO_MOVE && ponder != null && ponderTarget != null
+                && ponderTarget.equals(placementAndSide(fen));
+        ponderWorker = null;
+        if (ponder != null && bookMove == BitboardPosition.NO_MOVE) {
+            if (hit) {
+                ponderHits++;
+            } else {
+                ponderMisses++;
+            }
+        }
+
+        thinkingStopped = false;
+        g.gameStatus.setText(hit ? "Status: Computing (ponder hit)" : "Status: Computing");
+        searchWorker = new SwingWorker<Integer, SearchInfo>() {
+            private final StringBuilder progress = new StringBuilder();
+
+            @Override
+            protected Integer doInBackground() {
+                if (ponder != null) {
+                    int pondered = awaitPonder(ponder, hit ? limits.hardBudgetMillis(BitboardPosition.BLACK) : 0);
+                    for (int move : rootMoves) {
+                        if (hit && move == pondered) return move;
+                    }
+                }
+                if (bookMove != BitboardPosition.NO_MOVE) return bookMove;
+                // A stop that came before the search started is reset by it, so it is repeated
+                // once a depth is done
+                search.setListener(info -> {
+                    publish(info);
+                    if (thinkingStopped) search.stop();
+                });
+                return search.search(position, limits, rootMoves);
+            }
+
+            @Override
+            protected void process(List<SearchInfo> infos) {
+                SearchInfo last = infos.get(infos.size() - 1);
+                g.gameStatus.setText("Status: Computing depth " + last.depth + ", best "
+                        + BitboardPosition.toUci(last.bestMove) + " (" + formatScore(last) + ")");
+                if (watch) {
+                    for (SearchInfo info : infos) {
+                        progress.append(String.format("Depth %d: %s %s, %d nodes, %d nps\r\n", info.depth,
+                                BitboardPosition.toUci(info.bestMove), formatScore(info), info.nodes,
+                                info.getNodesPerSecond()));
+                    }
+                    g.moves.setText(prevText + progress);
+                }
+            }
+
+            @Override
+            protected void done() {
+                search.setListener(null);
+                searchWorker = null;
+                int best = rootMoves[0];
+                try {
+                    best = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.warn("Search failed, playing the first legal move", e);
+                }
+                finishComputerMove(best, prevText + progress, bookMove == BitboardPosition.NO_MOVE);
+                if (PONDER && whiteTurn) {
+                    // The last search is the ponder one after a hit; a book move was not searched
+                    int reply = (bookMove == BitboardPosition.NO_MOVE) ? search.getPonderMove()
+                            : BitboardPosition.NO_MOVE;
+                    startPondering(position, best, reply);
+                }
+            }
+        };
+        searchWorker.execute();
+        return true;
+    }
+
+    // Waits for a ponder search to end, stopping it once budgetMillis have passed (at once if 0) or
+    // thinking is stopped; returns its move. Not on the EDT. The stop is repeated, as one that lands
+    // before the search has started is reset by it.
+    private int awaitPonder(SwingWorker<Integer, Void> ponder, long budgetMillis) {
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        try {
+            while (true) {
+                if (thinkingStopped || System.currentTimeMillis() >= deadline) search.stop();
+                try {
+                    return ponder.get(10, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // still searching
+                }
+            }
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+            return BitboardPosition.NO_MOVE;
+        }
+    }
+
+    // Searches the position after the human's expected reply to the computer's move in the
+    // background, to the depth the computer's own search would use. guess is the reply the
+    // computer's search expected, NO_MOVE if none; without one the position itself is searched,
+    // which still fills the tables for Black's replies. searched is the position the computer's
+    // move was found in.
+    private void startPondering(BitboardPosition searched, int computerMove, int guess) {
+        final BitboardPosition position = new BitboardPosition(searched);
+        position.makeMove(computerMove);
+        int[] moves = new int[BitboardPosition.MAX_MOVES];
+        int count = position.generateLegalMoves(moves, 0);
+        if (count == 0) return;
+        boolean legal = false;
+        for (int i = 0; i < count; i++) {
+            if (moves[i] == guess) legal = true;
+        }
+        if (legal) {
+            position.makeMove(guess);
+            count = position.generateLegalMoves(moves, 0);
+            if (count == 0) return;
+            ponderTarget = placementAndSide(position.getFEN());
+        } else {
+            ponderTarget = null;
+        }
+        final int[] rootMoves = Arrays.copyOf(moves, count);
+        final SearchLimits limits = SearchLimits.depth(getGameTreeDepth());
+        search.setListener(null);
+        ponderWorker = new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() {
+                return search.search(position, limits, rootMoves);
+            }
+        };
+        ponderWorker.execute();
+    }
+
+    // Ends pondering when the game is over; the ponder is stopped and waited for off the EDT
+    private void stopPondering() {
+        final SwingWorker<Integer, Void> ponder = ponderWorker;
+        if (ponder == null) return;
+        ponderWorker = null;
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() {
+                return awaitPonder(ponder, 0);
+            }
+        }.execute();
+    }
+
+    // FEN up to the side to move, which is what tells positions apart for pondering
+    private static String placementAndSide(String fen) {
+        int space = fen.indexOf(' ');
+        return fen.substring(0, Math.min(fen.length(), space + 2));
+    }
+
+    // Plays the move just made on the Square grid on game. The move is found by the placement it
+    // leaves; a grid no single move explains starts game over from Board's FEN, without history.
+    private void syncGame() {
+        String fen = getFEN();
+        String placement = fen.substring(0, fen.indexOf(' '));
+        int[] moves = new int[BitboardPosition.MAX_MOVES];
+        int count = game.generateLegalMoves(moves, 0);
+        for (int i = 0; i < count; i++) {
+            game.makeMove(moves[i]);
+            String next = game.getFEN();
+            if (next.substring(0, next.indexOf(' ')).equals(placement)) return;
+            game.unmakeMove(moves[i]);
+        }
+        if (Log.DEBUG) Log.debug("Board and game differ, restarting the game from %s", placement);
+        game = new BitboardPosition(placement + (game.getSideToMove() == BitboardPosition.WHITE ? " b" : " w")
+                + " - - 0 1");
+    }
+
+    // A book move from position that is among rootMoves, or NO_MOVE
+    private static int bookMove(BitboardPosition position, int[] rootMoves) {
+        OpeningBook book = OpeningBook.getShared();
+        if (book == null) return BitboardPosition.NO_MOVE;
+        int move = book.pick(position);
+        for (int root : rootMoves) {
+            if (root == move) return move;
+        }
+        return BitboardPosition.NO_MOVE;
+    }
+
+    private void finishComputerMove(int best, String prevText, boolean searched) {
+        if (CLOCK_MS > 0) {
+            blackClock += INCREMENT_MS - (System.currentTimeMillis() - turnStarted);
+        }
+        TranspositionTable table = search.getTable();
+        String newText = prevText + (!searched ? "Book move\r\n"
+                : String.format("Searched %d nodes, %d nps on %d threads (hash hits %.0f%%, %.0f%% full)\r\n",
+                        search.getNodeCount(), search.getNodesPerSecond(), search.getThreadCount(),
+                        table.getHitRate() * 100, table.getOccupancy() * 100));
+        if (PONDER) newText += String.format("Ponder hits %d, misses %d\r\n", ponderHits, ponderMisses);
+        if (searched && Tablebase.getShared() != null) {
+            newText += String.format("Tablebase hits %d\r\n", search.getTablebaseHitCount());
+        }
+
+        currPiece = squareAt(BitboardPosition.from(best)).getOccupyingPiece();
+        takeTurnEx(currPiece, squareAt(BitboardPosition.to(best)), whiteTurn, newText, 0);
+        syncGame();
+        whiteTurn = true; // Change the turn back to White
+        turnStarted = System.currentTimeMillis();
+        prescorer.start(getFEN());
+
+        g.gameStatus.setText("Status: Moved to " + currPiece.getPositionName() + formatClocks());
+        g.moves.setText(newText);
+        repaint();
+    }
+
+    // Ends the computer's search early; it plays the best move of the last finished depth
+    public void stopThinking() {
+        if (searchWorker == null) return;
+        thinkingStopped = true;
+        search.stop();
+    }
+
+    public boolean isThinking() {
+        return searchWorker != null;
+    }
+
+    private static String formatScore(SearchInfo info) {
+        if (info.isMate()) return "mate " + info.getMateIn();
+        return String.format("%+.2f", info.score / 100.0);
+    }
+
+    private String formatClocks() {
+        if (CLOCK_MS <= 0) return "";
+        long white = Math.max(0, whiteClock) / 1000;
+        long black = Math.max(0, blackClock) / 1000;
+        return String.format(" (White %d:%02d, Black %d:%02d)", white / 60, white % 60, black / 60, black % 60);
+    }
+
     private boolean EvadeCheck() {
 
         // Try to find best square to move the King
@@ -632,10 +973,16 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
                     sq.setDisplay(true);
                     currPiece.move(sq);
                     cmd.update();
+                    syncGame();
+                    prescorer.cancel();
+                    if (CLOCK_MS > 0) {
+                        whiteClock += INCREMENT_MS - (System.currentTimeMillis() - turnStarted);
+                    }
 
                     newText = currPiece.getPositionName() + "\r\n";
 
                     if (cmd.blackCheckMated()) {
+                        stopPondering();
                         currPiece = null;
                         repaint();
                         this.removeMouseListener(this);
@@ -651,13 +998,17 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
                         newText = newText + "White Checkmated\r\n";
                     } else {
                         boolean bInCheck = cmd.blackInCheck();
-                        if (bInCheck) {
+                        if (bInCheck && !LEGACY_SEARCH) {
+                            // The search only plays moves that leave the king safe
+                            newText = newText + "Black in Check\r\n";
+                        } else if (bInCheck) {
                             newText = newText + "Black in Check\r\n";
 
                             g.gameStatus.setText("Status: Computing");
                             g.buttons.update(g.buttons.getGraphics());
 
                             if (EvadeCheck()) {
+                                syncGame();
                                 currPiece = Bk;
                                 whiteTurn = !whiteTurn;
                                 newText = newText + "Check evaded\r\n";
@@ -671,17 +1022,22 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
 
                         currPiece = null;
                         whiteTurn = !whiteTurn;
-                        if (!whiteTurn) {
+                        // The search moves in the background and finishComputerMove updates the board;
+                        // the legacy minimax (or a position it cannot play) is still searched here
+                        if (!whiteTurn && (LEGACY_SEARCH || !startComputerMove(newText))) {
                             // Let Computer pick the next turn
                             g.gameStatus.setText("Status: Computing");
                             g.buttons.update(g.buttons.getGraphics());
 
-                            Stack<String> futureMoves = new Stack<String>();
+                            minMaxNodes = 0;
                             Pair<Integer, Pair<Piece, Square>> r = MinMax_SelectPiece(false, 0, newText);
                             Pair<Piece, Square> m = r.getValue();
+                            newText = newText + "Searched " + minMaxNodes + " nodes\r\n";
                             currPiece = m.getKey();
                             boolean success = takeTurnEx(m.getKey(), m.getValue(), whiteTurn, newText, 0);
+                            if (success) syncGame();
                             whiteTurn = true; // Change the turn back to White
+                            prescorer.start(getFEN());
 
                             g.gameStatus.setText("Status: Moved to " + currPiece.getPositionName());
                             g.buttons.update(g.buttons.getGraphics());
@@ -704,6 +1060,7 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
 
     @Override
     public void mouseReleased(MouseEvent e) {
+        if (searchWorker != null) return;
         Square sq = (Square) this.getComponentAt(new Point(e.getX(), e.getY()));
 
         takeTurn(sq);
@@ -711,6 +1068,7 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
 
     @Override
     public void mouseDragged(MouseEvent e) {
+        if (searchWorker != null) return;
         currX = e.getX() - 24;
         currY = e.getY() - 24;
 
@@ -720,6 +1078,15 @@ public class Board extends JPanel implements MouseListener, MouseMotionListener
     // Irrelevant methods, do nothing for these mouse behaviors
     @Override
     public void mouseMoved(MouseEvent e) {
+        // The piece under the mouse is the likely next click, so its overlay is scored next
+        if (searchWorker != null || !whiteTurn) return;
+        Component c = this.getComponentAt(new Point(e.getX(), e.getY()));
+        if (!(c instanceof Square)) return;
+        Square sq = (Square) c;
+        int sqi = (7 - sq.getYNum()) * 8 + sq.getXNum();
+        if (sqi == hoverSqi) return;
+        hoverSqi = sqi;
+        if (sq.isOccupied() && sq.getOccupyingPiece().getColor() == 1) prescorer.prioritise(getFEN(), sqi);
     }
 
     @Override
@@ -0,0 +1,152 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import chesspresso.Chess;
+import chesspresso.position.Position;
+
+/**
+ * Writes the 12x8x8 input planes of the evaluation model directly into a slot of a direct
+ * FloatBuffer, matching encode_fen in ml_model/train_model.py: plane order PNBRQKpnbrqk,
+ * row 0 is rank 8 and column 0 is file a. Encoding uses absolute puts and a primitive lookup
+ * table only, so it allocates nothing once the buffer exists.
+ */
+public final class BoardEncoder {
+    // Floats per encoded position: 12 piece planes of 8x8
+    public static final int PLANE_SIZE = 12 * 8 * 8;
+    public static final int PLANE_COUNT = 12;
+
+    private static final String PLANE_SYMBOLS = "PNBRQKpnbrqk";
+
+    // Plane index of every chesspresso stone (offset by MIN_STONE), -1 for empty squares
+    private static final int[] STONE_TO_PLANE = new int[Chess.MAX_STONE - Chess.MIN_STONE + 1];
+    static {
+        for (int stone = Chess.MIN_STONE; stone <= Chess.MAX_STONE; stone++) {
+            STONE_TO_PLANE[stone - Chess.MIN_STONE] =
+                    (stone == Chess.NO_STONE) ? -1 : PLANE_SYMBOLS.indexOf(Chess.stoneToChar(stone));
+        }
+    }
+
+    private BoardEncoder() {
+    }
+
+    // Direct buffer for n positions so ONNX Runtime can read the planes without copying them
+    public static FloatBuffer allocate(int n) {
+        return ByteBuffer.allocateDirect(n * PLANE_SIZE * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    public static void encode(Position position, FloatBuffer planes, int slot) {
+        long start = Metrics.start();
+        int base = slot * PLANE_SIZE;
+        clear(planes, base);
+        for (int sqi = 0; sqi < 64; sqi++) {
+            int plane = plane(position.getStone(sqi));
+            if (plane >= 0) planes.put(base + offset(plane, sqi), 1.0f);
+        }
+        Metrics.ENCODE.recordSince(start);
+    }
+
+    // Same layout from 12 bitboards in plane order, bit i set for a piece on square i (a1 = 0)
+    public static void encode(long[] bitboards, FloatBuffer planes, int slot) {
+        long start = Metrics.start();
+        int base = slot * PLANE_SIZE;
+        clear(planes, base);
+        for (int plane = 0; plane < PLANE_COUNT; plane++) {
+            long bb = bitboards[plane];
+            while (bb != 0) {
+                planes.put(base + offset(plane, Long.numberOfTrailingZeros(bb)), 1.0f);
+                bb &= bb - 1;
+            }
+        }
+        Metrics.ENCODE.recordSince(start);
+    }
+
+    // Piece placement of fen as 12 bitboards in plane order (bit i for square i, a1 = 0), without
+    // building a position; returns the side to move, 0 for White and 1 for Black
+    public static int parseFen(String fen, long[] bitboards) {
+        Arrays.fill(bitboards, 0, PLANE_COUNT, 0L);
+        int sq = 56;
+        int i = 0;
+        int length = fen.length();
+        for (; i < length; i++) {
+            char c = fen.charAt(i);
+            if (c == ' ') break;
+            if (c == '/') {
+                sq -= 16;
+            } else if (c >= '1' && c <= '8') {
+                sq += c - '0';
+            } else {
+                int plane = PLANE_SYMBOLS.indexOf(c);
+                if (plane < 0 || sq < 0 || sq > 63) throw new IllegalArgumentException("Bad FEN: " + fen);
+                bitboards[plane] |= 1L << sq++;
+            }
+        }
+        return (i + 1 < length && fen.charAt(i + 1) == 'b') ? 1 : 0;
+    }
+
+    // Plane index of a chesspresso stone, -1 for an empty square
+    public static int plane(int stone) {
+        return STONE_TO_PLANE[stone - Chess.MIN_STONE];
+    }
+
+    // Index of square sqi of the given plane within one encoded position
+    public static int offset(int plane, int sqi) {
+        return plane * 64 + (7 - (sqi >>> 3)) * 8 + (sqi & 7);
+    }
+
+    private static void clear(FloatBuffer planes, int base) {
+        for (int i = base, end = base + PLANE_SIZE; i < end; i++) {
+            planes.put(i, 0.0f);
+        }
+    }
+
+    /**
+     * Checks that encoding allocates nothing in steady state: once warmed up, the given number of
+     * encode calls through both overloads must leave the thread's allocated byte count unchanged.
+     * The exit code is 1 if they allocate.
+     *
+     * Usage: java BoardEncoder [calls]   (default 1000000)
+     */
+    public static void main(String[] args) {
+        int calls = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] fens = {
+            BitboardPosition.START_FEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"
+        };
+        Position[] positions = new Position[fens.length];
+        long[][] bitboards = new long[fens.length][];
+        for (int i = 0; i < fens.length; i++) {
+            positions[i] = new Position(fens[i]);
+            bitboards[i] = new BitboardPosition(fens[i]).getBitboards();
+        }
+        FloatBuffer planes = allocate(fens.length);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // Long enough for both overloads to be compiled before anything is counted
+        encodeAll(positions, bitboards, planes, calls);
+        long idle = threads.getCurrentThreadAllocatedBytes();
+        idle = threads.getCurrentThreadAllocatedBytes() - idle;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        encodeAll(positions, bitboards, planes, calls);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before - idle;
+
+        boolean ok = allocated <= 0;
+        System.out.printf("%d encodes allocated %d bytes%s%n", 2L * calls, Math.max(0, allocated),
+                ok ? "" : "  ALLOCATES");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void encodeAll(Position[] positions, long[][] bitboards, FloatBuffer planes, int calls) {
+        for (int i = 0; i < calls; i++) {
+            int slot = i % positions.length;
+            encode(positions[slot], planes, slot);
+            encode(bitboards[slot], planes, slot);
+        }
+    }
+}
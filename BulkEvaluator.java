@@ -0,0 +1,300 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import ai.onnxruntime.OrtException;
+
+/**
+ * Headless bulk evaluation of a fen,score CSV such as the Kaggle dataset train_model.py samples
+ * from. The file is streamed in chunks by a reader thread; worker threads encode batches of
+ * [n,12,8,8] and run them through an EvaluatorService; the calling thread writes
+ * fen,target,prediction rows in input order. At most a fixed number of batches is in flight, so
+ * memory stays bounded however large the file is.
+ *
+ * Scores are centipawns in the input and pawns in the output, as in training. Rows without a
+ * numeric score (a header, mate scores such as #+3) or with an unreadable FEN are skipped and
+ * counted. Running MAE and R2 are logged every REPORT_ROWS rows and kept in output.summary.
+ *
+ * Usage: java BulkEvaluator input.csv output.csv [threads] [batch]
+ * The model, session count and backend come from chess.model, chess.sessions and chess.backend.
+ */
+public class BulkEvaluator {
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final long REPORT_ROWS = 100000;
+
+    private final EvaluatorService service;
+    private final int threads;
+    private final int batchSize;
+
+    /** A run of consecutive rows, filled by the reader and scored by a worker. */
+    private static final class Batch {
+        final long sequence;
+        final String[] fens;
+        final float[] targets;
+        int size;
+        float[] predictions;
+        Exception error;
+
+        Batch(long sequence, int capacity) {
+            this.sequence = sequence;
+            this.fens = new String[capacity];
+            this.targets = new float[capacity];
+        }
+    }
+
+    /** Running mean absolute error and R2 of predictions against targets. */
+    public static final class Accuracy {
+        private long count;
+        private double absoluteError;
+        private double squaredError;
+        private double mean;
+        private double m2; // sum of squared deviations from the running mean (Welford)
+
+        public void add(double target, double prediction) {
+            count++;
+            double error = prediction - target;
+            absoluteError += Math.abs(error);
+            squaredError += error * error;
+            double delta = target - mean;
+            mean += delta / count;
+            m2 += delta * (target - mean);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMae() {
+            return count == 0 ? 0 : absoluteError / count;
+        }
+
+        public double getR2() {
+            return m2 == 0 ? 0 : 1 - squaredError / m2;
+        }
+    }
+
+    public BulkEvaluator(EvaluatorService service, int threads, int batchSize) {
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("threads and batch size must be at least 1");
+        }
+        this.service = service;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java BulkEvaluator input.csv output.csv [threads] [batch]");
+            System.exit(2);
+        }
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int batch = (args.length > 3) ? Integer.parseInt(args[3]) : Evaluator.MAX_CACHED_BATCH;
+        EvaluatorService service = EvaluatorService.getShared();
+        Accuracy accuracy = new BulkEvaluator(service, threads, batch).run(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.printf("%d rows, MAE %.4f, R2 %.4f%n", accuracy.getCount(), accuracy.getMae(), accuracy.getR2());
+        System.exit(0);
+    }
+
+    public Accuracy run(Path input, Path output) throws IOException, InterruptedException {
+        int inFlight = threads * 4;
+        Semaphore permits = new Semaphore(inFlight);
+        BlockingQueue<Batch> done = new ArrayBlockingQueue<>(inFlight + 1);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bulk-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        ThreadLocal<FloatBuffer> planes = ThreadLocal.withInitial(() -> BoardEncoder.allocate(batchSize));
+        ThreadLocal<long[]> bitboards = ThreadLocal.withInitial(() -> new long[BoardEncoder.PLANE_COUNT]);
+
+        // The reader ends with an empty batch whose sequence number is the batch count
+        long[] skipped = new long[1];
+        Thread reader = new Thread(() -> {
+            long sequence = 0;
+            try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+                LineReader lines = new LineReader(channel);
+                Batch batch = new Batch(sequence, batchSize);
+                String line;
+                while ((line = lines.next()) != null) {
+                    int comma = line.lastIndexOf(',');
+                    float target = (comma < 0) ? Float.NaN : parseScore(line, comma + 1);
+                    if (Float.isNaN(target)) {
+                        skipped[0]++;
+                        continue;
+                    }
+                    batch.fens[batch.size] = line.substring(0, comma);
+                    batch.targets[batch.size++] = target / 100;
+                    if (batch.size == batchSize) {
+                        submit(batch, permits, workers, done, planes, bitboards);
+                        batch = new Batch(++sequence, batchSize);
+                    }
+                }
+                if (batch.size > 0) {
+                    submit(batch, permits, workers, done, planes, bitboards);
+                    sequence++;
+                }
+                done.put(new Batch(sequence, 0));
+            } catch (IOException | InterruptedException e) {
+                Batch failed = new Batch(-1, 0);
+                failed.error = e;
+                done.offer(failed);
+            }
+        }, "bulk-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        Accuracy accuracy = new Accuracy();
+        long unreadable = 0;
+        long start = System.nanoTime();
+        Path summary = Paths.get(output + ".summary");
+        try (BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            Map<Long, Batch> waiting = new HashMap<>();
+            long next = 0;
+            long total = Long.MAX_VALUE;
+            long reported = 0;
+            while (next < total) {
+                Batch batch = done.take();
+                if (batch.error != null) throw new IOException("Bulk evaluation failed", batch.error);
+                if (batch.size == 0 && batch.predictions == null) {
+                    total = batch.sequence;
+                    continue;
+                }
+                waiting.put(batch.sequence, batch);
+                // Batches finish out of order; write every one that is next in line
+                while ((batch = waiting.remove(next)) != null) {
+                    for (int i = 0; i < batch.size; i++) {
+                        float prediction = batch.predictions[i];
+                        if (Float.isNaN(prediction)) {
+                            unreadable++;
+                            continue;
+                        }
+                        accuracy.add(batch.targets[i], prediction);
+                        out.write(batch.fens[i]);
+                        out.write(',');
+                        out.write(Float.toString(batch.targets[i]));
+                        out.write(',');
+                        out.write(Float.toString(prediction));
+                        out.newLine();
+                    }
+                    permits.release();
+                    next++;
+                }
+                if (accuracy.getCount() - reported >= REPORT_ROWS) {
+                    reported = accuracy.getCount();
+                    writeSummary(summary, accuracy, skipped[0] + unreadable, start);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        writeSummary(summary, accuracy, skipped[0] + unreadable, start);
+        return accuracy;
+    }
+
+    private void submit(Batch batch, Semaphore permits, ExecutorService workers, BlockingQueue<Batch> done,
+            ThreadLocal<FloatBuffer> planes, ThreadLocal<long[]> bitboards) throws InterruptedException {
+        permits.acquire();
+        workers.execute(() -> {
+            try {
+                FloatBuffer buffer = planes.get();
+                long[] boards = bitboards.get();
+                boolean[] bad = new boolean[batch.size];
+                for (int i = 0; i < batch.size; i++) {
+                    try {
+                        BoardEncoder.parseFen(batch.fens[i], boards);
+                    } catch (IllegalArgumentException e) {
+                        bad[i] = true;
+                        Arrays.fill(boards, 0L);
+                    }
+                    BoardEncoder.encode(boards, buffer, i);
+                }
+                batch.predictions = service.evaluateBatch(buffer, batch.size);
+                for (int i = 0; i < batch.size; i++) {
+                    if (bad[i]) batch.predictions[i] = Float.NaN;
+                }
+            } catch (OrtException | RuntimeException e) {
+                batch.error = e;
+            }
+            done.add(batch);
+        });
+    }
+
+    private void writeSummary(Path summary, Accuracy accuracy, long skipped, long start) throws IOException {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String text = String.format("rows %d%nskipped %d%nMAE %.6f%nR2 %.6f%nrows/s %.0f%n", accuracy.getCount(),
+                skipped, accuracy.getMae(), accuracy.getR2(), accuracy.getCount() / Math.max(seconds, 1e-9));
+        Path temp = Paths.get(summary + ".tmp");
+        Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, summary, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Log.info("%d rows, %.0f rows/s, MAE %.4f, R2 %.4f", accuracy.getCount(),
+                accuracy.getCount() / Math.max(seconds, 1e-9), accuracy.getMae(), accuracy.getR2());
+    }
+
+    // Centipawns from line[from..], with an optional sign; NaN if it is not a plain number
+    static float parseScore(String line, int from) {
+        int end = line.length();
+        while (end > from && Character.isWhitespace(line.charAt(end - 1))) end--;
+        if (from < end && line.charAt(from) == '+') from++;
+        if (from >= end) return Float.NaN;
+        try {
+            return Float.parseFloat(line.substring(from, end));
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    /** Lines of an ASCII/UTF-8 file read through a fixed chunk buffer. */
+    static final class LineReader {
+        private final FileChannel channel;
+        private final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        private byte[] bytes = new byte[128];
+        private boolean eof;
+
+        LineReader(FileChannel channel) {
+            this.channel = channel;
+            chunk.flip();
+        }
+
+        // The next line without its terminator, or null at the end of the file
+        String next() throws IOException {
+            int length = 0;
+            while (true) {
+                if (!chunk.hasRemaining()) {
+                    if (eof) break;
+                    chunk.clear();
+                    eof = channel.read(chunk) < 0;
+                    chunk.flip();
+                    continue;
+                }
+                byte b = chunk.get();
+                if (b == '\n') {
+                    return decode(length);
+                }
+                if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+                bytes[length++] = b;
+            }
+            return (length > 0) ? decode(length) : null;
+        }
+
+        private String decode(int length) {
+            if (length > 0 && bytes[length - 1] == '\r') length--;
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of network scores keyed by Zobrist hash, in front of the
+ * Evaluator: EvaluatorService, MoveScorer and the network search look a position up here
+ * before running the model. Scores are in the model's unit (pawns, from White's side).
+ *
+ * Entries live in sets of WAYS slots held in primitive arrays; a key can only occupy the slots
+ * of its set, and a full set evicts by the chosen policy: LRU (least recently read or written)
+ * or CLOCK (second chance: a hand sweeps the set, sparing and clearing slots read since it last
+ * passed). Sets are guarded by striped locks, so threads working on different positions rarely
+ * wait for each other.
+ */
+public class EvalCache {
+    public enum Policy { LRU, CLOCK }
+
+    private static final int WAYS = 8;
+    private static final int STRIPES = 64;
+
+    private static EvalCache shared;
+
+    private final Policy policy;
+    private final long[] keys;
+    private final float[] scores;          // NaN marks an empty slot
+    private final long[] lastUsed;         // LRU: set tick of the slot's last access
+    private final boolean[] referenced;    // CLOCK: read since the hand last passed
+    private final long[] ticks;            // LRU: per-set access counter
+    private final int[] hands;             // CLOCK: per-set position of the hand
+    private final int setMask;
+    private final Object[] locks = new Object[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Rounds capacity up to a power-of-two number of sets
+    public EvalCache(int capacity, Policy policy) {
+        int needed = Math.max(1, (capacity + WAYS - 1) / WAYS);
+        int sets = (needed == 1) ? 1 : Integer.highestOneBit(needed - 1) << 1;
+        this.policy = policy;
+        keys = new long[sets * WAYS];
+        scores = new float[sets * WAYS];
+        Arrays.fill(scores, Float.NaN);
+        lastUsed = (policy == Policy.LRU) ? new long[sets * WAYS] : null;
+        referenced = (policy == Policy.CLOCK) ? new boolean[sets * WAYS] : null;
+        ticks = (policy == Policy.LRU) ? new long[sets] : null;
+        hands = (policy == Policy.CLOCK) ? new int[sets] : null;
+        setMask = sets - 1;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // Cache of the shared model (EvaluatorService.getShared and the network search)
+    public static synchronized EvalCache getShared() {
+        if (shared == null) {
+            shared = fromProperties();
+        }
+        return shared;
+    }
+
+    // Sized by -Dchess.evalCache (entries, default 262144), with -Dchess.evalCache.policy lru (default) or clock
+    public static EvalCache fromProperties() {
+        return new EvalCache(Integer.getInteger("chess.evalCache", 1 << 18), policyFromProperty());
+    }
+
+    private static Policy policyFromProperty() {
+        String name = System.getProperty("chess.evalCache.policy", "lru").toLowerCase(Locale.ROOT);
+        switch (name) {
+            case "lru": return Policy.LRU;
+            case "clock": return Policy.CLOCK;
+            default: throw new IllegalArgumentException("chess.evalCache.policy must be lru or clock: " + name);
+        }
+    }
+
+    // Cached score for key, or NaN on a miss
+    public float get(long key) {
+        int set = (int) (key ^ (key >>> 32)) & setMask;
+        int base = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            for (int i = base; i < base + WAYS; i++) {
+                if (keys[i] == key && !Float.isNaN(scores[i])) {
+                    touch(set, i);
+                    hits.increment();
+                    return scores[i];
+                }
+            }
+        }
+        misses.increment();
+        return Float.NaN;
+    }
+
+    public void put(long key, float score) {
+        if (Float.isNaN(score)) return;
+        int set = (int) (key ^ (key >>> 32)) & setMask;
+        int base = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int slot = -1;
+            boolean present = false;
+            for (int i = base; i < base + WAYS; i++) {
+                if (keys[i] == key && !Float.isNaN(scores[i])) {
+                    slot = i;
+                    present = true;
+                    break;
+                }
+                if (slot < 0 && Float.isNaN(scores[i])) slot = i;
+            }
+            if (slot < 0) {
+                slot = victim(set, base);
+                evictions.increment();
+            }
+            keys[slot] = key;
+            scores[slot] = score;
+            // A new CLOCK entry earns its second chance only by being read
+            if (policy == Policy.LRU || present) {
+                touch(set, slot);
+            } else {
+                referenced[slot] = false;
+            }
+        }
+    }
+
+    private void touch(int set, int slot) {
+        if (policy == Policy.LRU) {
+            lastUsed[slot] = ++ticks[set];
+        } else {
+            referenced[slot] = true;
+        }
+    }
+
+    // The slot of a full set to overwrite; called with the set's lock held
+    private int victim(int set, int base) {
+        if (policy == Policy.LRU) {
+            int oldest = base;
+            for (int i = base + 1; i < base + WAYS; i++) {
+                if (lastUsed[i] < lastUsed[oldest]) oldest = i;
+            }
+            return oldest;
+        }
+        // At most one full sweep clears every reference bit, so this ends within 2 * WAYS steps
+        while (true) {
+            int i = base + hands[set];
+            hands[set] = (hands[set] + 1) & (WAYS - 1);
+            if (!referenced[i]) return i;
+            referenced[i] = false;
+        }
+    }
+
+    public void clear() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int set = stripe; set <= setMask; set += STRIPES) {
+                    Arrays.fill(scores, set * WAYS, set * WAYS + WAYS, Float.NaN);
+                }
+            }
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long n = h + misses.sum();
+        return n == 0 ? 0 : (double) h / n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("eval cache %s %d entries: %d hits, %d misses, %d evictions (%.0f%% hits)",
+                policy, getCapacity(), getHits(), getMisses(), getEvictions(), getHitRate() * 100);
+    }
+}
@@ -0,0 +1,21 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one model call of an Evaluator: a batch of positions through session.run, or
+ * through the Java forward pass.
+ */
+@Name("chess.Evaluation")
+@Label("Evaluation Batch")
+@Category("Chess")
+@Description("One model call over a batch of encoded positions")
+public class EvaluationEvent extends Event {
+    @Label("Batch Size")
+    public int batchSize;
+
+    @Label("Backend")
+    public String backend;
+}
@@ -1,55 +1,248 @@
 import ai.onnxruntime.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.*;
 import chesspresso.position.Position;
 
+/**
+ * One ONNX Runtime session over the evaluation model. The input and output tensors of each batch
+ * size are created once over preallocated direct buffers and reused, so an evaluation allocates
+ * no native memory; close() releases all of it. An Evaluator is used by one thread at a time
+ * (EvaluatorService lends each session to a single caller), so the buffers act as per-thread ones.
+ *
+ * With -Dchess.backend=java the forward pass runs in Java instead (IncrementalEvaluator, on the
+ * Vector API kernels when jdk.incubator.vector is loaded), with no session or native calls.
+ *
+ * Session options are read from system properties:
+ *   chess.ort.intraThreads / chess.ort.interThreads  thread pool sizes, 0 for the ONNX Runtime default
+ *   chess.ort.optimization   none, basic, extended or all (default)
+ *   chess.ort.executionMode  sequential (default) or parallel
+ *   chess.ort.arena          CPU memory arena (default true)
+ *   chess.ort.memoryPattern  memory pattern planning (default true)
+ *   chess.ort.spinning       intra-op threads spin while waiting for work (default true)
+ */
 public class Evaluator {
-    private OrtEnvironment env;
-    private OrtSession session;
-
-    private static final Map<Character, Integer> PIECE_TO_INDEX = new HashMap<>();
-static {
-    PIECE_TO_INDEX.put('P', 0); PIECE_TO_INDEX.put('N', 1);
-    PIECE_TO_INDEX.put('B', 2); PIECE_TO_INDEX.put('R', 3);
-    PIECE_TO_INDEX.put('Q', 4); PIECE_TO_INDEX.put('K', 5);
-    PIECE_TO_INDEX.put('p', 6); PIECE_TO_INDEX.put('n', 7);
-    PIECE_TO_INDEX.put('b', 8); PIECE_TO_INDEX.put('r', 9);
-    PIECE_TO_INDEX.put('q', 10); PIECE_TO_INDEX.put('k', 11);
-}
+    // Batches up to this size run on cached tensors, larger ones on temporary tensors
+    public static final int MAX_CACHED_BATCH = 64;
+
+    private static final String INPUT_NAME = "board";
+    private static final String OUTPUT_NAME = "evaluation";
+
+    public enum Backend {
+        ONNX, JAVA;
+
+        // -Dchess.backend: onnx (default) or java
+        public static Backend fromProperty() {
+            String name = System.getProperty("chess.backend", "onnx").toLowerCase(Locale.ROOT);
+            switch (name) {
+                case "onnx": return ONNX;
+                case "java": return JAVA;
+                default: throw new IllegalArgumentException("chess.backend must be onnx or java: " + name);
+            }
+        }
+    }
+
+    // Exactly one of session (ONNX backend) and network (Java backend) is set
+    private final OrtEnvironment env;
+    private final OrtSession session;
+    private final IncrementalEvaluator.Accumulator network;
 
+    private final FloatBuffer input = BoardEncoder.allocate(MAX_CACHED_BATCH);
+    private final FloatBuffer output = ByteBuffer.allocateDirect(MAX_CACHED_BATCH * Float.BYTES)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final OnnxTensor[] inputTensors = new OnnxTensor[MAX_CACHED_BATCH + 1];
+    private final OnnxTensor[] outputTensors = new OnnxTensor[MAX_CACHED_BATCH + 1];
+    private boolean closed;
 
     public Evaluator(String modelPath) throws OrtException {
+        this(modelPath, Backend.fromProperty());
+    }
+
+    public Evaluator(String modelPath, Backend backend) throws OrtException {
+        if (backend == Backend.JAVA) {
+            env = null;
+            session = null;
+            network = IncrementalEvaluator.load(modelPath).newAccumulator();
+            return;
+        }
         env = OrtEnvironment.getEnvironment();
-        session = env.createSession(modelPath, new OrtSession.SessionOptions());
+        try (OrtSession.SessionOptions options = createSessionOptions()) {
+            session = env.createSession(modelPath, options);
+        }
+        network = null;
+    }
+
+    // ONNX backend; the caller keeps ownership of options and closes them
+    public Evaluator(String modelPath, OrtSession.SessionOptions options) throws OrtException {
+        env = OrtEnvironment.getEnvironment();
+        session = env.createSession(modelPath, options);
+        network = null;
+    }
+
+    public Backend getBackend() {
+        return (network != null) ? Backend.JAVA : Backend.ONNX;
+    }
+
+    // Session options from the chess.ort.* properties; the caller closes them
+    public static OrtSession.SessionOptions createSessionOptions() throws OrtException {
+        OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+        try {
+            int intraThreads = Integer.getInteger("chess.ort.intraThreads", 0);
+            int interThreads = Integer.getInteger("chess.ort.interThreads", 0);
+            if (intraThreads > 0) options.setIntraOpNumThreads(intraThreads);
+            if (interThreads > 0) options.setInterOpNumThreads(interThreads);
+
+            String level = System.getProperty("chess.ort.optimization", "all").toLowerCase(Locale.ROOT);
+            switch (level) {
+                case "none": options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.NO_OPT); break;
+                case "basic": options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.BASIC_OPT); break;
+                case "extended": options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.EXTENDED_OPT); break;
+                case "all": options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT); break;
+                default: throw new IllegalArgumentException("chess.ort.optimization must be none, basic, extended or all: " + level);
+            }
+
+            boolean parallel = "parallel".equalsIgnoreCase(System.getProperty("chess.ort.executionMode"));
+            options.setExecutionMode(parallel ? OrtSession.SessionOptions.ExecutionMode.PARALLEL
+                    : OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL);
+            options.setCPUArenaAllocator(Boolean.parseBoolean(System.getProperty("chess.ort.arena", "true")));
+            options.setMemoryPatternOptimization(Boolean.parseBoolean(System.getProperty("chess.ort.memoryPattern", "true")));
+            // Spinning threads answer faster but burn cores that other sessions on the host could use
+            if (!Boolean.parseBoolean(System.getProperty("chess.ort.spinning", "true"))) {
+                options.addConfigEntry("session.intra_op.allow_spinning", "0");
+                options.addConfigEntry("session.inter_op.allow_spinning", "0");
+            }
+            return options;
+        } catch (OrtException | RuntimeException e) {
+            options.close();
+            throw e;
+        }
     }
 
     public float evaluateFEN(String fen) throws OrtException {
-        float[][][][] input = new float[1][12][8][8];
-        Position position = new Position(fen);
-
-        for (int sq = 0; sq < 64; sq++) {
-            int piece = position.getPiece(sq);
-            if (piece == chesspresso.Chess.NO_PIECE) continue;
-        
-            char symbol = chesspresso.Chess.pieceToChar(piece);  // This gives 'P', 'n', etc.
-        
-            int row = 7 - (sq / 8);
-            int col = sq % 8;
-            int index = PIECE_TO_INDEX.getOrDefault(symbol, -1);
-        
-            if (index >= 0) input[0][index][row][col] = 1.0f;
-        }
-        
-        
-
-        OnnxTensor tensor = OnnxTensor.createTensor(env, input);
-        OrtSession.Result result = session.run(Collections.singletonMap("board", tensor));
-        float[][] output = (float[][]) result.get(0).getValue();
-        return output[0][0];
+        long start = Metrics.start();
+        float score = evaluate(new Position(fen));
+        Metrics.EVALUATE_FEN.recordSince(start);
+        return score;
+    }
+
+    public float evaluate(Position position) throws OrtException {
+        BoardEncoder.encode(position, input, 0);
+        return run(1)[0];
+    }
+
+    public float evaluate(BitboardPosition position) throws OrtException {
+        BoardEncoder.encode(position.getBitboards(), input, 0);
+        return run(1)[0];
     }
 
+    public float[] evaluateBatch(List<String> fens) throws OrtException {
+        Position[] positions = new Position[fens.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new Position(fens.get(i));
+        }
+        return evaluateBatch(positions);
+    }
+
+    public float[] evaluateBatch(Position[] positions) throws OrtException {
+        FloatBuffer planes = (positions.length <= MAX_CACHED_BATCH) ? input : BoardEncoder.allocate(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            BoardEncoder.encode(positions[i], planes, i);
+        }
+        return evaluateBatch(planes, positions.length);
+    }
+
+    // Runs the model once over the first n encoded positions of planes ([n,12,8,8])
+    public float[] evaluateBatch(FloatBuffer planes, int n) throws OrtException {
+        if (n == 0) return new float[0];
+        if (network != null) return runJava(planes, n);
+        if (n > MAX_CACHED_BATCH) return runTemporary(planes, n);
+
+        if (planes != input) {
+            input.clear();
+            input.put(planes.duplicate().position(0).limit(n * BoardEncoder.PLANE_SIZE));
+            input.clear();
+        }
+        return run(n);
+    }
+
+    // Runs the first n positions of the input buffer on the cached tensors for batch size n
+    private float[] run(int n) throws OrtException {
+        if (network != null) return runJava(input, n);
+        if (closed) throw new IllegalStateException("Evaluator is closed");
+        if (inputTensors[n] == null) {
+            inputTensors[n] = OnnxTensor.createTensor(env, input.slice(0, n * BoardEncoder.PLANE_SIZE),
+                    new long[] { n, 12, 8, 8 });
+            outputTensors[n] = OnnxTensor.createTensor(env, output.slice(0, n), new long[] { n, 1 });
+        }
+        EvaluationEvent event = new EvaluationEvent();
+        event.begin();
+        long start = Metrics.start();
+        // The output is pinned to the cached tensor, which the result does not own or close, so
+        // the result is closed at once and the scores are read from the output buffer
+        session.run(Collections.singletonMap(INPUT_NAME, inputTensors[n]),
+                Collections.singletonMap(OUTPUT_NAME, outputTensors[n])).close();
+        finish(event, start, n);
+        float[] scores = new float[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = output.get(i);
+        }
+        return scores;
+    }
+
+    private float[] runTemporary(FloatBuffer planes, int n) throws OrtException {
+        float[] scores = new float[n];
+        FloatBuffer view = planes.duplicate().position(0).limit(n * BoardEncoder.PLANE_SIZE);
+        EvaluationEvent event = new EvaluationEvent();
+        event.begin();
+        long start = Metrics.start();
+        try (OnnxTensor tensor = OnnxTensor.createTensor(env, view, new long[] { n, 12, 8, 8 });
+                OrtSession.Result result = session.run(Collections.singletonMap(INPUT_NAME, tensor))) {
+            finish(event, start, n);
+            float[][] values = (float[][]) result.get(0).getValue();
+            for (int i = 0; i < n; i++) {
+                scores[i] = values[i][0];
+            }
+        }
+        return scores;
+    }
+
+    // Java backend: the first layer is rebuilt from each position's planes, the rest is evaluated in full
+    private float[] runJava(FloatBuffer planes, int n) {
+        if (closed) throw new IllegalStateException("Evaluator is closed");
+        EvaluationEvent event = new EvaluationEvent();
+        event.begin();
+        long start = Metrics.start();
+        float[] scores = new float[n];
+        for (int i = 0; i < n; i++) {
+            network.reset(planes, i * BoardEncoder.PLANE_SIZE);
+            scores[i] = network.evaluate();
+        }
+        finish(event, start, n);
+        return scores;
+    }
+
+    // Records one model call in the INFERENCE histogram and, when JFR is recording, as an event
+    private void finish(EvaluationEvent event, long start, int n) {
+        Metrics.INFERENCE.recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.batchSize = n;
+            event.backend = getBackend().name();
+            event.commit();
+        }
+    }
+
+    // The OrtEnvironment is process-global and shared with other sessions, so only the session is closed
     public void close() throws OrtException {
-        session.close();
-        env.close();
+        if (closed) return;
+        closed = true;
+        for (int n = 0; n <= MAX_CACHED_BATCH; n++) {
+            if (inputTensors[n] != null) inputTensors[n].close();
+            if (outputTensors[n] != null) outputTensors[n].close();
+            inputTensors[n] = null;
+            outputTensors[n] = null;
+        }
+        if (session != null) session.close();
     }
 }
-
@@ -0,0 +1,181 @@
+import ai.onnxruntime.*;
+import java.nio.FloatBuffer;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import chesspresso.position.Position;
+
+/**
+ * Process-wide owner of the evaluation model. The model is loaded once into a fixed number of
+ * sessions, which are lent to callers (Board, MoveScorer, search) one at a time and returned
+ * afterwards. Single positions are looked up in an EvalCache before a session is taken.
+ * Configured with the system properties chess.model, chess.sessions and chess.warmup;
+ * chess.model may also name the INT8 variant written by ml_model/quantize_model.py.
+ */
+public class EvaluatorService {
+    public static final String DEFAULT_MODEL_PATH = "ml_model/model.onnx";
+    public static final String QUANTIZED_MODEL_PATH = "ml_model/model_int8.onnx";
+
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static final long SHUTDOWN_WAIT_MS = 5000;
+    private static final long ACQUIRE_POLL_MS = 50;
+
+    private static EvaluatorService shared;
+
+    private final List<Evaluator> sessions = new ArrayList<>();
+    private final BlockingQueue<Evaluator> idle;
+    private final EvalCache cache;
+    private volatile boolean closed;
+
+    // With a cache of its own, sized like the shared one
+    public EvaluatorService(String modelPath, int sessionCount) throws OrtException {
+        this(modelPath, sessionCount, EvalCache.fromProperties());
+    }
+
+    // cache must only hold scores of this model
+    public EvaluatorService(String modelPath, int sessionCount, EvalCache cache) throws OrtException {
+        this.cache = cache;
+        if (sessionCount < 1) {
+            throw new IllegalArgumentException("sessionCount must be at least 1: " + sessionCount);
+        }
+        idle = new ArrayBlockingQueue<>(sessionCount);
+        try {
+            for (int i = 0; i < sessionCount; i++) {
+                Evaluator evaluator = new Evaluator(modelPath);
+                sessions.add(evaluator);
+                idle.add(evaluator);
+            }
+        } catch (OrtException e) {
+            shutdown();
+            throw e;
+        }
+    }
+
+    // Shared instance, created on first use and shut down when the JVM exits
+    public static synchronized EvaluatorService getShared() throws OrtException {
+        if (shared == null) {
+            String modelPath = System.getProperty("chess.model", DEFAULT_MODEL_PATH);
+            int sessionCount = Integer.getInteger("chess.sessions", 1);
+            EvaluatorService service = new EvaluatorService(modelPath, sessionCount, EvalCache.getShared());
+            if (Boolean.parseBoolean(System.getProperty("chess.warmup", "true"))) {
+                service.warmUp();
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(service::shutdown, "evaluator-shutdown"));
+            shared = service;
+        }
+        return shared;
+    }
+
+    // Loads the shared instance on a background thread so the first click does not pay for it
+    public static void preloadShared() {
+        Thread loader = new Thread(() -> {
+            try {
+                getShared();
+            } catch (OrtException e) {
+                Log.error("Cannot load the evaluation model", e);
+            }
+        }, "evaluator-preload");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    // Runs one inference on every session so graph initialisation happens before real requests
+    public void warmUp() throws OrtException {
+        for (Evaluator evaluator : sessions) {
+            evaluator.evaluateFEN(START_FEN);
+        }
+    }
+
+    public EvalCache getCache() {
+        return cache;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    // Polls rather than blocks, so that a caller still waiting when the service shuts down fails
+    // instead of waiting for a session that never comes back
+    public Evaluator acquire() throws OrtException {
+        try {
+            while (!closed) {
+                Evaluator evaluator = idle.poll(ACQUIRE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (evaluator == null) continue;
+                if (!closed) return evaluator;
+                idle.offer(evaluator); // for shutdown to close
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrtException("Interrupted while waiting for an evaluator session");
+        }
+        throw new IllegalStateException("EvaluatorService has been shut down");
+    }
+
+    public void release(Evaluator evaluator) {
+        idle.offer(evaluator);
+    }
+
+    public float evaluateFEN(String fen) throws OrtException {
+        return evaluate(new Position(fen));
+    }
+
+    public float evaluate(Position position) throws OrtException {
+        long key = Zobrist.hash(position);
+        float score = cache.get(key);
+        if (!Float.isNaN(score)) return score;
+        Evaluator evaluator = acquire();
+        try {
+            score = evaluator.evaluate(position);
+        } finally {
+            release(evaluator);
+        }
+        cache.put(key, score);
+        return score;
+    }
+
+    public float evaluate(BitboardPosition position) throws OrtException {
+        float score = cache.get(position.getKey());
+        if (!Float.isNaN(score)) return score;
+        Evaluator evaluator = acquire();
+        try {
+            score = evaluator.evaluate(position);
+        } finally {
+            release(evaluator);
+        }
+        cache.put(position.getKey(), score);
+        return score;
+    }
+
+    public float[] evaluateBatch(FloatBuffer planes, int n) throws OrtException {
+        Evaluator evaluator = acquire();
+        try {
+            return evaluator.evaluateBatch(planes, n);
+        } finally {
+            release(evaluator);
+        }
+    }
+
+    // Waits briefly for lent sessions to come back, then closes every session; the process-wide
+    // OrtEnvironment is left to ONNX Runtime
+    public synchronized void shutdown() {
+        if (closed) return;
+        closed = true;
+
+        for (int i = 0; i < sessions.size(); i++) {
+            try {
+                if (idle.poll(SHUTDOWN_WAIT_MS, TimeUnit.MILLISECONDS) == null) break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Evaluator evaluator : sessions) {
+            try {
+                evaluator.close();
+            } catch (OrtException e) {
+                Log.warn("Cannot close an evaluator session", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The evaluation CNN of ml_model/train_model.py computed in Java, NNUE-style: the first
+ * convolution is linear in the 768 input features (plane, square), so its pre-activation output
+ * is kept in an Accumulator and updated only for the pieces a move removes or places. Evaluating
+ * then runs the layers after it. Weights come from the ONNX model itself (ModelWeights), so the
+ * result matches ONNX Runtime up to float rounding.
+ *
+ * Scores are in the model's unit (pawns, from White's side). The first layer's incremental cost
+ * is a few hundred multiply-adds per moved piece; the second convolution and the first dense
+ * layer are still computed in full at every evaluation and dominate the cost. Both are sums of
+ * weight rows scaled by the active (positive) inputs, which run on VectorKernels when the JVM is
+ * started with --add-modules jdk.incubator.vector, unless -Dchess.simd=false.
+ *
+ * Usage: java --add-modules jdk.incubator.vector IncrementalEvaluator [model.onnx] [games]
+ * plays random games and compares every position's incremental score with ONNX Runtime's.
+ */
+public class IncrementalEvaluator {
+    private static final int PLANES = 12;
+    private static final int CELLS = 64;
+    private static final int CONV1 = 32;
+    private static final int CONV2 = 64;
+    private static final int HIDDEN = 128;
+    private static final int TAPS = 9;
+    private static final int FLAT = CELLS * CONV2;
+
+    // Deeper than any search line, see AlphaBetaSearch.MAX_PLY
+    private static final int MAX_STACK = 128;
+
+    private static final Map<String, IncrementalEvaluator> loaded = new ConcurrentHashMap<>();
+
+    // Per feature (plane * 64 + square) and 3x3 tap: the conv1 output cell it feeds (-1 off the
+    // board) and the CONV1 weights it adds there. Cells are row * 8 + column as in BoardEncoder.
+    private final int[] featureCells = new int[PLANES * 64 * TAPS];
+    private final float[] featureWeights = new float[PLANES * 64 * TAPS * CONV1];
+    private final float[] conv1Bias;
+    private final float[] conv2Weights = new float[TAPS * CONV1 * CONV2]; // [tap][in][out]
+    private final float[] conv2Bias;
+    private final float[] fc1Weights = new float[FLAT * HIDDEN]; // [cell * CONV2 + channel][hidden]
+    private final float[] fc1Bias;
+    private final float[] fc2Weights;
+    private final float fc2Bias;
+    private final boolean vector;
+
+    public IncrementalEvaluator(ModelWeights weights) {
+        this(weights, isVectorAvailable() && Boolean.parseBoolean(System.getProperty("chess.simd", "true")));
+    }
+
+    // vector selects VectorKernels, which needs the jdk.incubator.vector module
+    public IncrementalEvaluator(ModelWeights weights, boolean vector) {
+        if (vector && !isVectorAvailable()) {
+            throw new IllegalStateException("Vector kernels need --add-modules jdk.incubator.vector");
+        }
+        this.vector = vector;
+        float[] conv1 = checked(weights, "model.0.weight", CONV1, PLANES, 3, 3);
+        conv1Bias = checked(weights, "model.0.bias", CONV1);
+        float[] conv2 = checked(weights, "model.2.weight", CONV2, CONV1, 3, 3);
+        conv2Bias = checked(weights, "model.2.bias", CONV2);
+        float[] fc1 = checked(weights, "model.5.weight", HIDDEN, FLAT);
+        fc1Bias = checked(weights, "model.5.bias", HIDDEN);
+        fc2Weights = checked(weights, "model.7.weight", 1, HIDDEN);
+        fc2Bias = checked(weights, "model.7.bias", 1)[0];
+
+        // A piece on (row, col) reaches output cell (row - ky + 1, col - kx + 1) through tap (ky, kx)
+        for (int plane = 0; plane < PLANES; plane++) {
+            for (int sqi = 0; sqi < 64; sqi++) {
+                int row = 7 - sqi / 8;
+                int col = sqi % 8;
+                for (int tap = 0; tap < TAPS; tap++) {
+                    int ky = tap / 3;
+                    int kx = tap % 3;
+                    int y = row - ky + 1;
+                    int x = col - kx + 1;
+                    int entry = (plane * 64 + sqi) * TAPS + tap;
+                    featureCells[entry] = (y >= 0 && y < 8 && x >= 0 && x < 8) ? y * 8 + x : -1;
+                    for (int out = 0; out < CONV1; out++) {
+                        featureWeights[entry * CONV1 + out] = conv1[((out * PLANES + plane) * 3 + ky) * 3 + kx];
+                    }
+                }
+            }
+        }
+        for (int tap = 0; tap < TAPS; tap++) {
+            for (int in = 0; in < CONV1; in++) {
+                for (int out = 0; out < CONV2; out++) {
+                    conv2Weights[(tap * CONV1 + in) * CONV2 + out] = conv2[((out * CONV1 + in) * 3 + tap / 3) * 3 + tap % 3];
+                }
+            }
+        }
+        // PyTorch flattens channel-major (channel * 64 + cell); the activations here are cell-major
+        for (int j = 0; j < HIDDEN; j++) {
+            for (int channel = 0; channel < CONV2; channel++) {
+                for (int cell = 0; cell < CELLS; cell++) {
+                    fc1Weights[(cell * CONV2 + channel) * HIDDEN + j] = fc1[j * FLAT + channel * CELLS + cell];
+                }
+            }
+        }
+    }
+
+    // Weights of -Dchess.model, read on first use
+    public static IncrementalEvaluator getShared() {
+        return load(System.getProperty("chess.model", EvaluatorService.DEFAULT_MODEL_PATH));
+    }
+
+    // Weights of the model at modelPath, read once per path and shared by its callers
+    public static IncrementalEvaluator load(String modelPath) {
+        return loaded.computeIfAbsent(modelPath, path -> {
+            try {
+                return new IncrementalEvaluator(ModelWeights.load(path));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read model weights from " + path, e);
+            }
+        });
+    }
+
+    // Checked without touching VectorKernels, whose initialization fails when the module is absent
+    // (the widths 64 and 128 are multiples of every vector length)
+    public static boolean isVectorAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    public boolean isVectorized() {
+        return vector;
+    }
+
+    private static float[] checked(ModelWeights weights, String name, int... shape) {
+        float[] value = weights.get(name);
+        if (!Arrays.equals(weights.shape(name), shape)) {
+            throw new IllegalArgumentException(name + " has shape " + Arrays.toString(weights.shape(name))
+                    + ", expected " + Arrays.toString(shape));
+        }
+        return value;
+    }
+
+    // One per searching thread
+    public Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    /**
+     * First-layer outputs along the current search line, one entry per ply. push() is called
+     * before BitboardPosition.makeMove and pop() after unmakeMove.
+     */
+    public class Accumulator {
+        private final float[][] stack = new float[MAX_STACK][CELLS * CONV1];
+        private int top;
+
+        private final float[] conv2Out = new float[FLAT];
+        private final float[] hidden = new float[HIDDEN];
+        // The active inputs of a layer: weight row and activation
+        private final int[] rows = new int[FLAT];
+        private final float[] values = new float[FLAT];
+
+        // Recomputes the first layer for position and makes it the bottom of the stack
+        public void reset(BitboardPosition position) {
+            top = 0;
+            float[] acc = stack[0];
+            for (int cell = 0; cell < CELLS; cell++) {
+                System.arraycopy(conv1Bias, 0, acc, cell * CONV1, CONV1);
+            }
+            long[] bitboards = position.getBitboards();
+            for (int piece = 0; piece < PLANES; piece++) {
+                for (long bb = bitboards[piece]; bb != 0; bb &= bb - 1) {
+                    add(acc, piece, Long.numberOfTrailingZeros(bb));
+                }
+            }
+        }
+
+        // Same as reset(BitboardPosition) for a position encoded by BoardEncoder at planes[base..]
+        public void reset(FloatBuffer planes, int base) {
+            top = 0;
+            float[] acc = stack[0];
+            for (int cell = 0; cell < CELLS; cell++) {
+                System.arraycopy(conv1Bias, 0, acc, cell * CONV1, CONV1);
+            }
+            for (int i = 0; i < BoardEncoder.PLANE_SIZE; i++) {
+                if (planes.get(base + i) == 0) continue;
+                int cell = i % 64;
+                add(acc, i / 64, (7 - cell / 8) * 8 + cell % 8);
+            }
+        }
+
+        public void push(BitboardPosition position, int move) {
+            float[] acc = stack[top + 1];
+            System.arraycopy(stack[top], 0, acc, 0, acc.length);
+            top++;
+
+            int from = BitboardPosition.from(move);
+            int to = BitboardPosition.to(move);
+            int flags = BitboardPosition.flags(move);
+            int piece = position.pieceAt(from);
+            int color = piece / 6;
+
+            subtract(acc, piece, from);
+            if (flags == BitboardPosition.EP_CAPTURE) {
+                int pawn = BitboardPosition.PAWN + 6 * (1 - color);
+                subtract(acc, pawn, (color == BitboardPosition.WHITE) ? to - 8 : to + 8);
+            } else if (BitboardPosition.isCapture(move)) {
+                subtract(acc, position.pieceAt(to), to);
+            }
+            add(acc, BitboardPosition.isPromotion(move) ? BitboardPosition.promotionType(move) + 6 * color : piece, to);
+
+            int rook = BitboardPosition.ROOK + 6 * color;
+            if (flags == BitboardPosition.KING_CASTLE) {
+                subtract(acc, rook, from + 3);
+                add(acc, rook, from + 1);
+            } else if (flags == BitboardPosition.QUEEN_CASTLE) {
+                subtract(acc, rook, from - 4);
+                add(acc, rook, from - 1);
+            }
+        }
+
+        public void pop() {
+            top--;
+        }
+
+        public float evaluate(BitboardPosition position) {
+            reset(position);
+            return evaluate();
+        }
+
+        // Model output for the position at the top of the stack
+        public float evaluate() {
+            float[] acc = stack[top];
+
+            // conv2 over ReLU(conv1), per output cell over the active inputs of its 3x3 window
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    int count = 0;
+                    for (int tap = 0; tap < TAPS; tap++) {
+                        int iy = y + tap / 3 - 1;
+                        int ix = x + tap % 3 - 1;
+                        if (iy < 0 || iy >= 8 || ix < 0 || ix >= 8) continue;
+                        int inBase = (iy * 8 + ix) * CONV1;
+                        for (int in = 0; in < CONV1; in++) {
+                            float a = acc[inBase + in];
+                            if (a <= 0) continue;
+                            rows[count] = tap * CONV1 + in;
+                            values[count++] = a;
+                        }
+                    }
+                    int outBase = (y * 8 + x) * CONV2;
+                    System.arraycopy(conv2Bias, 0, conv2Out, outBase, CONV2);
+                    accumulateRows(conv2Out, outBase, CONV2, conv2Weights, count);
+                }
+            }
+
+            // Dense layers over ReLU(conv2)
+            int count = 0;
+            for (int k = 0; k < FLAT; k++) {
+                float a = conv2Out[k];
+                if (a <= 0) continue;
+                rows[count] = k;
+                values[count++] = a;
+            }
+            System.arraycopy(fc1Bias, 0, hidden, 0, HIDDEN);
+            accumulateRows(hidden, 0, HIDDEN, fc1Weights, count);
+            float score = fc2Bias;
+            for (int j = 0; j < HIDDEN; j++) {
+                if (hidden[j] > 0) score += hidden[j] * fc2Weights[j];
+            }
+            return score;
+        }
+
+        // out[offset..offset + width) += values[r] * row rows[r] of weights, for the first count rows
+        private void accumulateRows(float[] out, int offset, int width, float[] weights, int count) {
+            if (vector) {
+                VectorKernels.accumulateRows(out, offset, width, weights, rows, values, count);
+                return;
+            }
+            for (int r = 0; r < count; r++) {
+                float a = values[r];
+                int w = rows[r] * width;
+                for (int j = 0; j < width; j++) {
+                    out[offset + j] += a * weights[w + j];
+                }
+            }
+        }
+
+        private void add(float[] acc, int piece, int sqi) {
+            int entry = (piece * 64 + sqi) * TAPS;
+            for (int tap = 0; tap < TAPS; tap++) {
+                int cell = featureCells[entry + tap];
+                if (cell < 0) continue;
+                int w = (entry + tap) * CONV1;
+                int a = cell * CONV1;
+                for (int out = 0; out < CONV1; out++) {
+                    acc[a + out] += featureWeights[w + out];
+                }
+            }
+        }
+
+        private void subtract(float[] acc, int piece, int sqi) {
+            int entry = (piece * 64 + sqi) * TAPS;
+            for (int tap = 0; tap < TAPS; tap++) {
+                int cell = featureCells[entry + tap];
+                if (cell < 0) continue;
+                int w = (entry + tap) * CONV1;
+                int a = cell * CONV1;
+                for (int out = 0; out < CONV1; out++) {
+                    acc[a + out] -= featureWeights[w + out];
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String modelPath = (args.length > 0) ? args[0] : EvaluatorService.DEFAULT_MODEL_PATH;
+        int games = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        ModelWeights weights = ModelWeights.load(modelPath);
+        IncrementalEvaluator scalar = new IncrementalEvaluator(weights, false);
+        IncrementalEvaluator network = new IncrementalEvaluator(weights);
+        Evaluator onnx = new Evaluator(modelPath, Evaluator.Backend.ONNX);
+        Evaluator java = new Evaluator(modelPath, Evaluator.Backend.JAVA);
+        Accumulator accumulator = network.newAccumulator();
+        Accumulator scalarAccumulator = scalar.newAccumulator();
+        Random random = new Random(1);
+        int[] moves = new int[BitboardPosition.MAX_MOVES];
+        System.out.println("kernels: " + (network.isVectorized() ? "vector" : "scalar"));
+
+        // Random games of up to 100 plies, all on one accumulator stack; the Java backend
+        // of Evaluator starts every position from its encoded planes
+        double maxError = 0;
+        int positions = 0;
+        for (int game = 0; game < games; game++) {
+            BitboardPosition position = new BitboardPosition();
+            accumulator.reset(position);
+            scalarAccumulator.reset(position);
+            for (int ply = 0; ply < 100; ply++) {
+                float expected = onnx.evaluate(position);
+                maxError = Math.max(maxError, Math.abs(accumulator.evaluate() - expected));
+                maxError = Math.max(maxError, Math.abs(scalarAccumulator.evaluate() - expected));
+                maxError = Math.max(maxError, Math.abs(java.evaluate(position) - expected));
+                positions++;
+                int count = position.generateLegalMoves(moves, 0);
+                if (count == 0) break;
+                int move = moves[random.nextInt(count)];
+                accumulator.push(position, move);
+                scalarAccumulator.push(position, move);
+                position.makeMove(move);
+            }
+        }
+        System.out.printf("%d positions, largest difference to ONNX Runtime %.2e%n", positions, maxError);
+
+        // Per-node cost: first-layer update plus the remaining layers, against ONNX Runtime
+        BitboardPosition position = new BitboardPosition("r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10");
+        int count = position.generateLegalMoves(moves, 0);
+        accumulator.reset(position);
+        scalarAccumulator.reset(position);
+        for (int round = 0; round < 3; round++) {
+            int iterations = 20000;
+            float sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                accumulator.push(position, moves[i % count]);
+                sink += accumulator.evaluate();
+                accumulator.pop();
+            }
+            long incremental = (System.nanoTime() - start) / iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations / 10; i++) {
+                scalarAccumulator.push(position, moves[i % count]);
+                sink += scalarAccumulator.evaluate();
+                scalarAccumulator.pop();
+            }
+            long scalarIncremental = (System.nanoTime() - start) / (iterations / 10);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations / 10; i++) {
+                sink += onnx.evaluate(position);
+            }
+            long runtime = (System.nanoTime() - start) / (iterations / 10);
+            System.out.printf("incremental %d ns/node (scalar %d), ONNX Runtime %d ns/node (%.0f)%n",
+                    incremental, scalarIncremental, runtime, sink);
+        }
+        onnx.close();
+        java.close();
+        System.exit(maxError < 1e-4 ? 0 : 1);
+    }
+}
@@ -0,0 +1,190 @@
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import ai.onnxruntime.OrtException;
+
+/**
+ * Collects leaf positions from search threads into batches for one model call each. A search
+ * submits all leaf children of a frontier node at once and waits; a dispatcher thread merges the
+ * pending requests of every thread until the batch size is reached, every searching thread is
+ * waiting, or the flush timeout has passed since the first request, then runs them through the
+ * EvaluatorService in one evaluateBatch call. Used by AlphaBetaSearch with -Dchess.eval=batched;
+ * sized by -Dchess.leafBatch (default Evaluator.MAX_CACHED_BATCH) and
+ * -Dchess.leafBatch.flushMicros (default 500).
+ */
+public class LeafBatcher {
+    private static LeafBatcher shared;
+
+    private final EvaluatorService service;
+    private final int batchSize;
+    private final long flushNanos;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger searching = new AtomicInteger();
+    private final FloatBuffer planes;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder positions = new LongAdder();
+
+    /** One thread's leaves, encoded by the caller, and their scores once done. */
+    static final class Request {
+        final FloatBuffer planes;
+        int count;
+        float[] scores;
+        RuntimeException error;
+        volatile boolean done;
+        Thread waiter;
+
+        Request(int capacity) {
+            planes = BoardEncoder.allocate(capacity);
+        }
+    }
+
+    public LeafBatcher(EvaluatorService service, int batchSize, long flushMicros) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        this.service = service;
+        this.batchSize = batchSize;
+        this.flushNanos = flushMicros * 1000;
+        // A request larger than the batch size is sent on its own
+        this.planes = BoardEncoder.allocate(Math.max(batchSize, BitboardPosition.MAX_MOVES));
+        Thread dispatcher = new Thread(this::dispatch, "leaf-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public static synchronized LeafBatcher getShared() {
+        if (shared == null) {
+            try {
+                shared = new LeafBatcher(EvaluatorService.getShared(),
+                        Integer.getInteger("chess.leafBatch", Evaluator.MAX_CACHED_BATCH),
+                        Long.getLong("chess.leafBatch.flushMicros", 500));
+            } catch (OrtException e) {
+                throw new IllegalStateException("Cannot load the evaluation model", e);
+            }
+        }
+        return shared;
+    }
+
+    // A request buffer for one search thread, holding up to capacity positions
+    Request newRequest(int capacity) {
+        return new Request(capacity);
+    }
+
+    // Called around a search, so the dispatcher knows how many threads may still send leaves
+    void enter() {
+        searching.incrementAndGet();
+    }
+
+    void leave() {
+        searching.decrementAndGet();
+    }
+
+    // Scores the first count positions of request.planes, in pawns from White's side; blocks until done
+    float[] evaluate(Request request, int count) {
+        request.count = count;
+        request.scores = null;
+        request.error = null;
+        request.done = false;
+        request.waiter = Thread.currentThread();
+        queue.add(request);
+        while (!request.done) {
+            LockSupport.park(this);
+        }
+        if (request.error != null) throw request.error;
+        return request.scores;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getPositionCount() {
+        return positions.sum();
+    }
+
+    @Override
+    public String toString() {
+        long n = batches.sum();
+        return String.format("leaf batches %d, positions %d, mean batch %.1f of %d", n, positions.sum(),
+                n == 0 ? 0.0 : (double) positions.sum() / n, batchSize);
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>();
+        Request carried = null;
+        while (true) {
+            try {
+                Request first = (carried != null) ? carried : queue.take();
+                carried = null;
+                batch.add(first);
+                int total = first.count;
+                long deadline = System.nanoTime() + flushNanos;
+                // Waits for more leaves only while some searching thread has none pending
+                while (total < batchSize && batch.size() < searching.get()) {
+                    long wait = deadline - System.nanoTime();
+                    Request next = (wait > 0) ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        if (wait <= 0) break;
+                        continue;
+                    }
+                    if (total + next.count > batchSize) {
+                        carried = next;
+                        break;
+                    }
+                    batch.add(next);
+                    total += next.count;
+                }
+                run(batch, total);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void run(List<Request> batch, int total) {
+        float[] scores = null;
+        RuntimeException error = null;
+        try {
+            if (batch.size() == 1) {
+                scores = service.evaluateBatch(batch.get(0).planes, total);
+            } else {
+                planes.clear();
+                for (Request request : batch) {
+                    planes.put(request.planes.duplicate().position(0).limit(request.count * BoardEncoder.PLANE_SIZE));
+                }
+                planes.clear();
+                scores = service.evaluateBatch(planes, total);
+            }
+            batches.increment();
+            positions.add(total);
+        } catch (OrtException | RuntimeException e) {
+            error = new IllegalStateException("Leaf evaluation failed", e);
+        }
+        int offset = 0;
+        for (Request request : batch) {
+            if (error != null) {
+                request.error = error;
+            } else if (batch.size() == 1) {
+                request.scores = scores;
+            } else {
+                float[] own = new float[request.count];
+                System.arraycopy(scores, offset, own, 0, request.count);
+                request.scores = own;
+            }
+            offset += request.count;
+            request.done = true;
+            LockSupport.unpark(request.waiter);
+        }
+    }
+}
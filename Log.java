@@ -0,0 +1,55 @@
+import java.io.PrintStream;
+import java.time.LocalTime;
+import java.util.Locale;
+
+/**
+ * Level-gated logging to standard error, set with -Dchess.log=debug, info (default), warn,
+ * error or off. The flags are static finals, so a call site written as
+ * {@code if (Log.DEBUG) Log.debug(...)} is removed by the JIT, arguments and all, when the level
+ * is off; that is the form to use on hot paths.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    public static final Level LEVEL = parse(System.getProperty("chess.log", "info"));
+    public static final boolean DEBUG = LEVEL.compareTo(Level.DEBUG) <= 0;
+    public static final boolean INFO = LEVEL.compareTo(Level.INFO) <= 0;
+    public static final boolean WARN = LEVEL.compareTo(Level.WARN) <= 0;
+    public static final boolean ERROR = LEVEL.compareTo(Level.ERROR) <= 0;
+
+    private static final PrintStream OUT = System.err;
+
+    private Log() {
+    }
+
+    private static Level parse(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("chess.log must be debug, info, warn, error or off: " + name);
+        }
+    }
+
+    public static void debug(String format, Object... args) {
+        if (DEBUG) write(Level.DEBUG, String.format(format, args), null);
+    }
+
+    public static void info(String format, Object... args) {
+        if (INFO) write(Level.INFO, String.format(format, args), null);
+    }
+
+    public static void warn(String message, Throwable error) {
+        if (WARN) write(Level.WARN, message, error);
+    }
+
+    public static void error(String message, Throwable error) {
+        if (ERROR) write(Level.ERROR, message, error);
+    }
+
+    private static void write(Level level, String message, Throwable error) {
+        synchronized (OUT) {
+            OUT.printf("%s %-5s [%s] %s%n", LocalTime.now(), level, Thread.currentThread().getName(), message);
+            if (error != null) error.printStackTrace(OUT);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and search counters. Off unless -Dchess.metrics=true or
+ * -Dchess.metrics.file is given; ENABLED is a static final, so the timing calls on the hot
+ * paths cost nothing when it is false. snapshot() renders everything as text; with
+ * -Dchess.metrics.file the snapshot is also written to that file every
+ * -Dchess.metrics.interval seconds (default 10) and when the JVM exits.
+ *
+ * The same work is also visible to Java Flight Recorder as SearchEvent and EvaluationEvent,
+ * whether or not these metrics are enabled.
+ */
+public final class Metrics {
+    private static final String DUMP_FILE = System.getProperty("chess.metrics.file");
+
+    public static final boolean ENABLED = Boolean.getBoolean("chess.metrics") || DUMP_FILE != null;
+
+    public static final LatencyHistogram EVALUATE_FEN = new LatencyHistogram("Evaluator.evaluateFEN");
+    public static final LatencyHistogram ENCODE = new LatencyHistogram("BoardEncoder.encode");
+    // session.run for the ONNX backend, the forward pass for the Java one
+    public static final LatencyHistogram INFERENCE = new LatencyHistogram("session.run");
+    public static final LatencyHistogram SEARCH = new LatencyHistogram("search");
+
+    public static final LongAdder SEARCHES = new LongAdder();
+    public static final LongAdder NODES = new LongAdder();
+    public static final LongAdder CUTOFFS = new LongAdder();
+    public static final LongAdder TABLE_HITS = new LongAdder();
+    public static final LongAdder EVAL_CACHE_HITS = new LongAdder();
+
+    private static final LatencyHistogram[] HISTOGRAMS = { EVALUATE_FEN, ENCODE, INFERENCE, SEARCH };
+
+    static {
+        if (DUMP_FILE != null) startDumping(Paths.get(DUMP_FILE), Long.getLong("chess.metrics.interval", 10));
+    }
+
+    private Metrics() {
+    }
+
+    // Start time for LatencyHistogram.recordSince, read only when metrics are enabled
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    // Totals of one search, summed over its threads
+    public static void recordSearch(long nanos, long nodes, long cutoffs, long tableHits, long evalCacheHits) {
+        if (!ENABLED) return;
+        SEARCH.record(nanos);
+        SEARCHES.increment();
+        NODES.add(nodes);
+        CUTOFFS.add(cutoffs);
+        TABLE_HITS.add(tableHits);
+        EVAL_CACHE_HITS.add(evalCacheHits);
+    }
+
+    public static String snapshot() {
+        StringBuilder text = new StringBuilder();
+        text.append("metrics at ").append(LocalDateTime.now()).append(ENABLED ? "" : " (disabled)").append('\n');
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            text.append(histogram).append('\n');
+        }
+        long searches = SEARCHES.sum();
+        long nodes = NODES.sum();
+        text.append(String.format("searches %d, nodes %d, cutoffs %d, table hits %d, eval cache hits %d%n",
+                searches, nodes, CUTOFFS.sum(), TABLE_HITS.sum(), EVAL_CACHE_HITS.sum()));
+        long searchNanos = SEARCH.getTotal();
+        if (searchNanos > 0) {
+            text.append(String.format("nodes per second %d%n", nodes * 1000000000L / searchNanos));
+        }
+        return text.toString();
+    }
+
+    // Replaces file with the current snapshot in one step, so readers never see half of it
+    public static void dump(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, snapshot().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        SEARCHES.reset();
+        NODES.reset();
+        CUTOFFS.reset();
+        TABLE_HITS.reset();
+        EVAL_CACHE_HITS.reset();
+    }
+
+    private static void startDumping(Path file, long intervalSeconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        Runnable task = () -> {
+            try {
+                dump(file);
+            } catch (IOException e) {
+                Log.warn("Cannot write metrics to " + file, e);
+            }
+        };
+        long interval = Math.max(1, intervalSeconds);
+        dumper.scheduleAtFixedRate(task, interval, interval, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(task, "metrics-final-dump"));
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The float initializers (weights and biases) of an ONNX model, read straight from the protobuf
+ * file so the Java evaluators run exactly the parameters ONNX Runtime runs. Only what the
+ * exported models use is understood: FLOAT tensors stored as raw_data or float_data, and the
+ * INT8/UINT8/INT32 initializers of a model quantized by ml_model/quantize_model.py. Those are
+ * stored as name_quantized with a scale and zero point (name_scale or name_quantized_scale) and
+ * are returned dequantized under their original name, per channel along the axis of their
+ * DequantizeLinear node.
+ */
+public class ModelWeights {
+    // Protobuf field numbers: ModelProto.graph, GraphProto, TensorProto, NodeProto and AttributeProto fields
+    private static final int MODEL_GRAPH = 7;
+    private static final int GRAPH_NODE = 1;
+    private static final int GRAPH_INITIALIZER = 5;
+    private static final int TENSOR_DIMS = 1;
+    private static final int TENSOR_DATA_TYPE = 2;
+    private static final int TENSOR_FLOAT_DATA = 4;
+    private static final int TENSOR_INT32_DATA = 5;
+    private static final int TENSOR_NAME = 8;
+    private static final int TENSOR_RAW_DATA = 9;
+    private static final int NODE_INPUT = 1;
+    private static final int NODE_OP_TYPE = 4;
+    private static final int NODE_ATTRIBUTE = 5;
+    private static final int ATTRIBUTE_NAME = 1;
+    private static final int ATTRIBUTE_INT = 3;
+
+    // TensorProto.DataType
+    private static final int FLOAT = 1;
+    private static final int UINT8 = 2;
+    private static final int INT8 = 3;
+    private static final int INT32 = 6;
+
+    private static final String QUANTIZED_SUFFIX = "_quantized";
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED32 = 5;
+
+    private final Map<String, float[]> values = new HashMap<>();
+    private final Map<String, int[]> shapes = new HashMap<>();
+    // Integer initializers as read (still offset by their zero point), and the DequantizeLinear axis per input
+    private final Map<String, float[]> integers = new HashMap<>();
+    private final Map<String, Integer> axes = new HashMap<>();
+
+    public static ModelWeights load(String modelPath) throws IOException {
+        ModelWeights weights = new ModelWeights();
+        ByteBuffer model = ByteBuffer.wrap(Files.readAllBytes(Paths.get(modelPath)));
+        while (model.hasRemaining()) {
+            int key = readVarint(model);
+            if (key >>> 3 == MODEL_GRAPH && (key & 7) == LENGTH_DELIMITED) {
+                ByteBuffer graph = readBytes(model);
+                while (graph.hasRemaining()) {
+                    int graphKey = readVarint(graph);
+                    if (graphKey >>> 3 == GRAPH_INITIALIZER && (graphKey & 7) == LENGTH_DELIMITED) {
+                        weights.readTensor(readBytes(graph));
+                    } else if (graphKey >>> 3 == GRAPH_NODE && (graphKey & 7) == LENGTH_DELIMITED) {
+                        weights.readNode(readBytes(graph));
+                    } else {
+                        skip(graph, graphKey & 7);
+                    }
+                }
+            } else {
+                skip(model, key & 7);
+            }
+        }
+        weights.dequantize();
+        return weights;
+    }
+
+    // The named tensor, flattened in row-major order
+    public float[] get(String name) {
+        float[] value = values.get(name);
+        if (value == null) throw new IllegalArgumentException("Model has no initializer " + name);
+        return value;
+    }
+
+    public int[] shape(String name) {
+        int[] shape = shapes.get(name);
+        if (shape == null) throw new IllegalArgumentException("Model has no initializer " + name);
+        return shape.clone();
+    }
+
+    private void readTensor(ByteBuffer tensor) {
+        int[] dims = new int[8];
+        int rank = 0;
+        int dataType = 0;
+        String name = null;
+        ByteBuffer raw = null;
+        float[] data = null;
+        while (tensor.hasRemaining()) {
+            int key = readVarint(tensor);
+            int field = key >>> 3;
+            int wire = key & 7;
+            if (field == TENSOR_DIMS && wire == VARINT) {
+                dims[rank++] = (int) readVarint64(tensor);
+            } else if (field == TENSOR_DIMS && wire == LENGTH_DELIMITED) {
+                ByteBuffer packed = readBytes(tensor);
+                while (packed.hasRemaining()) dims[rank++] = (int) readVarint64(packed);
+            } else if (field == TENSOR_DATA_TYPE && wire == VARINT) {
+                dataType = readVarint(tensor);
+            } else if (field == TENSOR_NAME && wire == LENGTH_DELIMITED) {
+                name = readString(tensor);
+            } else if (field == TENSOR_RAW_DATA && wire == LENGTH_DELIMITED) {
+                raw = readBytes(tensor).order(ByteOrder.LITTLE_ENDIAN);
+            } else if (field == TENSOR_FLOAT_DATA && wire == LENGTH_DELIMITED) {
+                raw = readBytes(tensor).order(ByteOrder.LITTLE_ENDIAN);
+                dataType = FLOAT;
+            } else if (field == TENSOR_INT32_DATA && wire == LENGTH_DELIMITED) {
+                // int8, uint8 and int32 values widened to varints
+                ByteBuffer packed = readBytes(tensor);
+                int[] ints = new int[packed.remaining()];
+                int count = 0;
+                while (packed.hasRemaining()) ints[count++] = readVarint(packed);
+                data = new float[count];
+                for (int i = 0; i < count; i++) data[i] = ints[i];
+            } else {
+                skip(tensor, wire);
+            }
+        }
+        if (name == null) return;
+        if (data == null && raw != null) data = decode(raw, dataType);
+        if (data == null) return; // not a weight this reader understands
+        if (dataType == FLOAT) {
+            values.put(name, data);
+        } else {
+            integers.put(name, data);
+        }
+        shapes.put(name, Arrays.copyOf(dims, rank));
+    }
+
+    private static float[] decode(ByteBuffer raw, int dataType) {
+        float[] data;
+        switch (dataType) {
+            case FLOAT:
+                data = new float[raw.remaining() / Float.BYTES];
+                raw.asFloatBuffer().get(data);
+                return data;
+            case INT8:
+            case UINT8:
+                data = new float[raw.remaining()];
+                for (int i = 0; i < data.length; i++) {
+                    byte b = raw.get();
+                    data[i] = (dataType == INT8) ? b : b & 0xFF;
+                }
+                return data;
+            case INT32:
+                data = new float[raw.remaining() / Integer.BYTES];
+                for (int i = 0; i < data.length; i++) data[i] = raw.getInt();
+                return data;
+            default:
+                return null;
+        }
+    }
+
+    // Records the axis of each DequantizeLinear node by its quantized input (ONNX default axis 1)
+    private void readNode(ByteBuffer node) {
+        String opType = null;
+        String firstInput = null;
+        int axis = 1;
+        while (node.hasRemaining()) {
+            int key = readVarint(node);
+            int field = key >>> 3;
+            int wire = key & 7;
+            if (field == NODE_INPUT && wire == LENGTH_DELIMITED) {
+                String input = readString(node);
+                if (firstInput == null) firstInput = input;
+            } else if (field == NODE_OP_TYPE && wire == LENGTH_DELIMITED) {
+                opType = readString(node);
+            } else if (field == NODE_ATTRIBUTE && wire == LENGTH_DELIMITED) {
+                ByteBuffer attribute = readBytes(node);
+                String attributeName = null;
+                long value = 0;
+                while (attribute.hasRemaining()) {
+                    int attributeKey = readVarint(attribute);
+                    if (attributeKey >>> 3 == ATTRIBUTE_NAME && (attributeKey & 7) == LENGTH_DELIMITED) {
+                        attributeName = readString(attribute);
+                    } else if (attributeKey >>> 3 == ATTRIBUTE_INT && (attributeKey & 7) == VARINT) {
+                        value = readVarint64(attribute);
+                    } else {
+                        skip(attribute, attributeKey & 7);
+                    }
+                }
+                if ("axis".equals(attributeName)) axis = (int) value;
+            } else {
+                skip(node, wire);
+            }
+        }
+        if ("DequantizeLinear".equals(opType) && firstInput != null) axes.put(firstInput, axis);
+    }
+
+    // Adds name = (name_quantized - zero point) * scale for every quantized initializer
+    private void dequantize() {
+        for (Map.Entry<String, float[]> entry : integers.entrySet()) {
+            String quantizedName = entry.getKey();
+            if (!quantizedName.endsWith(QUANTIZED_SUFFIX)) continue;
+            String name = quantizedName.substring(0, quantizedName.length() - QUANTIZED_SUFFIX.length());
+            // ONNX Runtime names weight scales name_scale and bias scales name_quantized_scale
+            String prefix = values.containsKey(name + "_scale") ? name : quantizedName;
+            float[] scale = values.get(prefix + "_scale");
+            if (scale == null || values.containsKey(name)) continue;
+            float[] zeroPoint = integers.get(prefix + "_zero_point");
+            float[] q = entry.getValue();
+            int[] shape = shapes.get(quantizedName);
+
+            // Per tensor, or per channel along the axis: channel c covers blocks of inner elements
+            int axis = axes.getOrDefault(quantizedName, 1);
+            if (axis < 0) axis += shape.length;
+            int inner = 1;
+            for (int d = axis + 1; d < shape.length; d++) inner *= shape[d];
+            int channels = scale.length;
+            float[] data = new float[q.length];
+            for (int i = 0; i < q.length; i++) {
+                int c = (channels == 1) ? 0 : (i / inner) % channels;
+                float zero = (zeroPoint == null) ? 0 : zeroPoint[(zeroPoint.length == 1) ? 0 : c];
+                data[i] = (q[i] - zero) * scale[c];
+            }
+            values.put(name, data);
+            shapes.put(name, shape);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        ByteBuffer bytes = readBytes(in);
+        byte[] chars = new byte[bytes.remaining()];
+        bytes.get(chars);
+        return new String(chars, StandardCharsets.UTF_8);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        return (int) readVarint64(in);
+    }
+
+    private static long readVarint64(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return result;
+        }
+        throw new IllegalStateException("Malformed varint in ONNX model");
+    }
+
+    private static ByteBuffer readBytes(ByteBuffer in) {
+        int length = readVarint(in);
+        ByteBuffer bytes = in.slice();
+        bytes.limit(length);
+        in.position(in.position() + length);
+        return bytes;
+    }
+
+    private static void skip(ByteBuffer in, int wire) {
+        switch (wire) {
+            case VARINT: readVarint64(in); break;
+            case FIXED64: in.position(in.position() + 8); break;
+            case LENGTH_DELIMITED: readBytes(in); break;
+            case FIXED32: in.position(in.position() + 4); break;
+            default: throw new IllegalStateException("Unsupported protobuf wire type " + wire + " in ONNX model");
+        }
+    }
+}
@@ -1,78 +1,207 @@
 import ai.onnxruntime.*;
+import java.nio.FloatBuffer;
+import java.util.*;
+import chesspresso.Chess;
 import chesspresso.move.IllegalMoveException;
 import chesspresso.move.Move;
 import chesspresso.position.Position;
 
 public class MoveScorer {
-    private Evaluator evaluator;
+    private final EvaluatorService service;
+    private final boolean ownsService;
+
+    // One batch holds the current position and up to 63 moves, enough for any single piece (at most
+    // 27, a centralised queen); larger requests are sent in several batches
+    private static final int BATCH_CAPACITY = Evaluator.MAX_CACHED_BATCH;
+    private final ThreadLocal<FloatBuffer> batchBuffer =
+            ThreadLocal.withInitial(() -> BoardEncoder.allocate(BATCH_CAPACITY));
 
     public static class ScoredMove {
+        public short move;
         public String moveSAN;
-        public String nextFEN;
         public float score;
         public float delta;
         public float quality;
+        private String nextFEN;
+        private String fromFEN; // the position move is played in, until nextFEN is worked out
 
         public ScoredMove(String moveSAN, String nextFEN, float score, float delta, float quality) {
+            this(Move.NO_MOVE, moveSAN, nextFEN, score, delta, quality);
+        }
+
+        public ScoredMove(short move, String moveSAN, String nextFEN, float score, float delta, float quality) {
+            this.move = move;
             this.moveSAN = moveSAN;
             this.nextFEN = nextFEN;
             this.score = score;
             this.delta = delta;
             this.quality = quality;
         }
+
+        // Made by scoreMoves, which encodes positions without FEN strings
+        ScoredMove(short move, String fromFEN, float score, float delta) {
+            this(move, Move.getString(move), null, score, delta, sigmoid(delta));
+            this.fromFEN = fromFEN;
+        }
+
+        // The position after the move; spelled out on first use for the moves of scoreMoves
+        public String getNextFEN() {
+            if (nextFEN == null && fromFEN != null) {
+                Position next = new Position(fromFEN);
+                try {
+                    next.doMove(move);
+                } catch (IllegalMoveException e) {
+                    throw new IllegalStateException(moveSAN + " was legal when it was scored", e);
+                }
+                nextFEN = next.getFEN();
+                fromFEN = null;
+            }
+            return nextFEN;
+        }
+    }
+
+    // Scores through the process-wide shared model sessions
+    public MoveScorer() throws OrtException {
+        this(EvaluatorService.getShared());
+    }
+
+    public MoveScorer(EvaluatorService service) {
+        this.service = service;
+        this.ownsService = false;
     }
 
+    // Loads a private single-session copy of the model, released again by close()
     public MoveScorer(String modelPath) throws OrtException {
-        this.evaluator = new Evaluator(modelPath);
+        this.service = new EvaluatorService(modelPath, 1);
+        this.ownsService = true;
     }
 
+    // The best move of the piece on fromSqi: a -Dchess.book opening book move if there is one,
+    // which is not scored (score NaN, quality 1), otherwise the move of highest quality
     public ScoredMove findBestMove(Position position, int fromSqi) throws OrtException {
-        String currentFEN = position.getFEN();
-        float currentEval = evaluator.evaluateFEN(currentFEN);
-    
+        ScoredMove book = bookMove(position, fromSqi);
+        if (book != null) return book;
+        List<ScoredMove> scored = scoreMoves(position, fromSqi);
+
+        ScoredMove best = null;
+        for (ScoredMove candidate : scored) {
+            if (best == null || candidate.quality > best.quality) {
+                best = candidate;
+            }
+        }
+
+        if (best == null) {
+            if (Log.DEBUG) Log.debug("No better move found from this piece");
+            return new ScoredMove("none", position.getFEN(), service.evaluate(position), 0, 0);
+        }
+        return best;
+
+    }
+
+    private static ScoredMove bookMove(Position position, int fromSqi) {
+        OpeningBook book = OpeningBook.getShared();
+        if (book == null) return null;
+        int move = book.pick(BitboardPosition.fromPosition(position), 1L << fromSqi);
+        if (move == BitboardPosition.NO_MOVE) return null;
+        for (short legal : position.getAllMoves()) {
+            if (Move.getFromSqi(legal) != BitboardPosition.from(move) || Move.getToSqi(legal) != BitboardPosition.to(move)) {
+                continue;
+            }
+            if (Move.isPromotion(legal) && Character.toLowerCase(Chess.pieceToChar(Move.getPromotionPiece(legal)))
+                    != BitboardPosition.toUci(move).charAt(4)) {
+                continue;
+            }
+            try {
+                position.doMove(legal);
+                String nextFEN = position.getFEN();
+                position.undoMove();
+                return new ScoredMove(legal, Move.getString(legal), nextFEN, Float.NaN, 0, 1);
+            } catch (IllegalMoveException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // Scores every legal move of the piece on fromSqi with at most one batched model call.
+    public List<ScoredMove> scoreMoves(Position position, int fromSqi) throws OrtException {
+        return scoreMoves(position, 1L << fromSqi);
+    }
+
+    // Scores every legal move from the squares set in fromSquares (bit i for square i), batched.
+    // Index 0 is the current position and index i + 1 the position after move i; positions whose
+    // score is already in the service's EvalCache are not sent to the model again.
+    // Positions are encoded directly; getNextFEN spells a move's position out when it is asked for.
+    public List<ScoredMove> scoreMoves(Position position, long fromSquares) throws OrtException {
         short[] legalMoves = position.getAllMoves();
-        ScoredMove best = new ScoredMove("none", currentFEN, currentEval, 0, 0);
-        float bestQuality = -1.0f;
-    
+        short[] played = new short[legalMoves.length];
+        float[] evals = new float[legalMoves.length + 1];
+        long[] keys = new long[legalMoves.length + 1];
+        int[] pending = new int[legalMoves.length + 1];
+        FloatBuffer planes = batchBuffer.get();
+
+        int batch = lookup(position, 0, evals, keys, pending, planes, 0);
+        int n = 0;
         for (short move : legalMoves) {
-            if (Move.getFromSqi(move) != fromSqi) continue; // only consider clicked piece
-    
+            if ((fromSquares & (1L << Move.getFromSqi(move))) == 0) continue; // only the requested pieces
+            if (batch == BATCH_CAPACITY) batch = flush(evals, keys, pending, planes, batch);
             try {
                 position.doMove(move);
-                String nextFEN = position.getFEN();
-                float nextEval = evaluator.evaluateFEN(nextFEN);
-                float delta = nextEval - currentEval;
-                float quality = sigmoid(delta);
-                String san = Move.getString(move);
-                position.undoMove();
-    
-                if (quality > bestQuality) {
-                    bestQuality = quality;
-                    best = new ScoredMove(san, nextFEN, nextEval, delta, quality);
-                }
             } catch (IllegalMoveException e) {
-                position.undoMove(); // Safe cleanup
+                continue;
             }
+            batch = lookup(position, n + 1, evals, keys, pending, planes, batch);
+            played[n++] = move;
+            position.undoMove();
         }
-    
-        if (best.moveSAN.equals("none")) {
-            System.out.println("[AI DEBUG] No better move found from this piece.");
+
+        flush(evals, keys, pending, planes, batch);
+        float currentEval = evals[0];
+
+        String fromFEN = position.getFEN();
+        List<ScoredMove> scored = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            float nextEval = evals[i + 1];
+            scored.add(new ScoredMove(played[i], fromFEN, nextEval, nextEval - currentEval));
         }
-        return best;
-        
+        return scored;
+    }
+
+    // Scores the queued positions in one model call and caches them; returns the new (empty) batch size
+    private int flush(float[] evals, long[] keys, int[] pending, FloatBuffer planes, int batch) throws OrtException {
+        if (batch == 0) return 0;
+        float[] computed = service.evaluateBatch(planes, batch);
+        for (int b = 0; b < batch; b++) {
+            evals[pending[b]] = computed[b];
+            service.getCache().put(keys[pending[b]], computed[b]);
+        }
+        return 0;
+    }
+
+    // Takes index's score from the cache, or queues the position in the batch; returns the new batch size
+    private int lookup(Position position, int index, float[] evals, long[] keys, int[] pending,
+            FloatBuffer planes, int batch) {
+        long key = Zobrist.hash(position);
+        float cached = service.getCache().get(key);
+        if (!Float.isNaN(cached)) {
+            evals[index] = cached;
+            return batch;
+        }
+        keys[index] = key;
+        BoardEncoder.encode(position, planes, batch);
+        pending[batch] = index;
+        return batch + 1;
     }
-    
 
-    public void close() throws OrtException {
-        evaluator.close();
+    public void close() {
+        if (ownsService) service.shutdown();
     }
 
-    private float sigmoid(float x) {
+    private static float sigmoid(float x) {
         return (float)(1.0 / (1.0 + Math.exp(-x)));
     }
-    public Evaluator getEvaluator() {
-        return evaluator;
+    public EvaluatorService getService() {
+        return service;
     }
-    
-}
 
+}
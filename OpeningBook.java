@@ -0,0 +1,275 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Polyglot opening book (.bin), memory-mapped read-only so that even a large book costs no heap.
+ * Entries are 16 bytes, big-endian and sorted by key:
+ *
+ *   0   uint64  Polyglot Zobrist key of the position
+ *   8   uint16  move: to file, to rank, from file, from rank (3 bits each), then the promotion
+ *   10  uint16  weight
+ *   12  uint32  learn, unused
+ *
+ * A position is found by binary search on its key, and one of its moves is chosen at random in
+ * proportion to the weights. Polyglot keys use the 781 Random64 numbers of the format, which are
+ * not shipped here: -Dchess.book.random names a text file holding them in their standard order
+ * (the array from the Polyglot documentation can be pasted as it is). The numbers are checked
+ * against the key test positions of the format, so a wrong or reordered list is refused rather
+ * than missing every book position. The numbers are not embedded because no copy of them could be
+ * checked here: the test positions use only a few dozen of the 781, and a list that passes them but
+ * is wrong elsewhere would silently miss book positions. -Dchess.book names the book.
+ *
+ * Usage: java OpeningBook book.bin [fen], lists the book moves of a position
+ */
+public class OpeningBook {
+    public static final int RANDOM_COUNT = 781;
+
+    private static final int ENTRY_BYTES = 16;
+    private static final int CASTLING_OFFSET = 768;
+    private static final int EP_OFFSET = 772;
+    private static final int TURN_OFFSET = 780;
+    private static final Pattern HEX_LITERAL = Pattern.compile("0[xX]([0-9A-Fa-f]{1,16})");
+
+    // The key test positions of the Polyglot format description: the start, then after e2e4, d7d5,
+    // e4e5, f7f5, e1e2, e8f7; and after a2a4 b7b5 h2h4 b5b4 c2c4, b4c3 a1a2
+    private static final String[] TEST_FENS = {
+        BitboardPosition.START_FEN,
+        "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1",
+        "rnbqkbnr/ppp1pppp/8/3p4/4P3/8/PPPP1PPP/RNBQKBNR w KQkq d6 0 2",
+        "rnbqkbnr/ppp1pppp/8/3pP3/8/8/PPPP1PPP/RNBQKBNR b KQkq - 0 2",
+        "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+        "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR b kq - 0 3",
+        "rnbq1bnr/ppp1pkpp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR w - - 0 4",
+        "rnbqkbnr/p1pppppp/8/8/PpP4P/8/1P1PPPP1/RNBQKBNR b KQkq c3 0 3",
+        "rnbqkbnr/p1pppppp/8/8/P6P/R1p5/1P1PPPP1/1NBQKBNR b Kkq - 0 4",
+    };
+    private static final long[] TEST_KEYS = {
+        0x463b96181691fc9cL, 0x823c9b50fd114196L, 0x0756b94461c50fb0L, 0x662fafb965db29d4L, 0x22a48b5a8e47ff78L,
+        0x652a607ca3f242c1L, 0x00fdd303c946bdd9L, 0x3c8123ea7b067637L, 0x5c3f9b829b279560L,
+    };
+
+    private static OpeningBook shared;
+    private static boolean sharedOpened;
+
+    private final MappedByteBuffer entries;
+    private final int count;
+    private final long[] random;
+
+    /** A book move of a position, as a legal BitboardPosition move. */
+    public static final class Entry {
+        public final int move;
+        public final int weight;
+
+        Entry(int move, int weight) {
+            this.move = move;
+            this.weight = weight;
+        }
+    }
+
+    public OpeningBook(Path book, long[] random) throws IOException {
+        if (random.length != RANDOM_COUNT) {
+            throw new IllegalArgumentException("Expected " + RANDOM_COUNT + " Random64 numbers, got " + random.length);
+        }
+        try (FileChannel channel = FileChannel.open(book, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size % ENTRY_BYTES != 0 || size > Integer.MAX_VALUE) {
+                throw new IOException(book + " is not a Polyglot book of at most 2 GB");
+            }
+            // The mapping stays valid after the channel is closed
+            entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        count = entries.capacity() / ENTRY_BYTES;
+        this.random = random.clone();
+        for (int i = 0; i < TEST_FENS.length; i++) {
+            if (key(new BitboardPosition(TEST_FENS[i])) != TEST_KEYS[i]) {
+                throw new IllegalArgumentException("Not the Polyglot Random64 numbers: wrong key for " + TEST_FENS[i]);
+            }
+        }
+    }
+
+    // The book named by chess.book, opened once; null if none is configured or it cannot be read
+    public static synchronized OpeningBook getShared() {
+        if (!sharedOpened) {
+            sharedOpened = true;
+            String book = System.getProperty("chess.book");
+            if (book != null && !book.isEmpty()) {
+                String random = System.getProperty("chess.book.random");
+                try {
+                    if (random == null) throw new IOException("-Dchess.book.random is not set");
+                    shared = new OpeningBook(Paths.get(book), readRandom(Paths.get(random)));
+                    Log.info("Opening book %s, %d entries", book, shared.size());
+                } catch (IOException | RuntimeException e) {
+                    Log.warn("Cannot open the opening book " + book, e);
+                }
+            }
+        }
+        return shared;
+    }
+
+    // Reads the Random64 numbers as hex, either 0x literals (C source) or bare whitespace-separated words
+    public static long[] readRandom(Path file) throws IOException {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII);
+        List<String> words = new ArrayList<>();
+        Matcher literal = HEX_LITERAL.matcher(text);
+        while (literal.find()) {
+            words.add(literal.group(1));
+        }
+        if (words.isEmpty()) {
+            for (String word : text.trim().split("[\\s,]+")) {
+                if (!word.isEmpty()) words.add(word);
+            }
+        }
+        if (words.size() != RANDOM_COUNT) {
+            throw new IOException(file + " holds " + words.size() + " numbers, not " + RANDOM_COUNT);
+        }
+        long[] random = new long[RANDOM_COUNT];
+        try {
+            for (int i = 0; i < RANDOM_COUNT; i++) {
+                random[i] = Long.parseUnsignedLong(words.get(i), 16);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(file + " is not a list of hex numbers", e);
+        }
+        return random;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Polyglot key: pieces, castling rights, an en passant file if a pawn can take there, White to move
+    public long key(BitboardPosition position) {
+        long key = 0;
+        long[] bitboards = position.getBitboards();
+        for (int plane = 0; plane < BoardEncoder.PLANE_COUNT; plane++) {
+            // Polyglot kinds run black pawn, white pawn, black knight, ...
+            int kind = 2 * (plane % 6) + (plane < 6 ? 1 : 0);
+            for (long b = bitboards[plane]; b != 0; b &= b - 1) {
+                key ^= random[64 * kind + Long.numberOfTrailingZeros(b)];
+            }
+        }
+        // WHITE_SHORT, WHITE_LONG, BLACK_SHORT, BLACK_LONG are bits 0 to 3, in Polyglot's order
+        for (int right = 0; right < 4; right++) {
+            if ((position.getCastling() & (1 << right)) != 0) key ^= random[CASTLING_OFFSET + right];
+        }
+        int ep = position.getEpSquare();
+        int side = position.getSideToMove();
+        if (ep >= 0 && (BitboardPosition.pawnAttacks(1 - side, ep) & position.getPieces(side, BitboardPosition.PAWN)) != 0) {
+            key ^= random[EP_OFFSET + (ep & 7)];
+        }
+        if (side == BitboardPosition.WHITE) key ^= random[TURN_OFFSET];
+        return key;
+    }
+
+    // The book moves of position that are legal in it, with a weight above 0
+    public List<Entry> lookup(BitboardPosition position) {
+        List<Entry> found = new ArrayList<>();
+        long key = key(position);
+        int[] moves = null;
+        int legal = 0;
+        for (int i = firstEntry(key); i < count && entries.getLong(i * ENTRY_BYTES) == key; i++) {
+            int weight = Short.toUnsignedInt(entries.getShort(i * ENTRY_BYTES + 10));
+            if (weight == 0) continue;
+            if (moves == null) {
+                moves = new int[BitboardPosition.MAX_MOVES];
+                legal = position.generateLegalMoves(moves, 0);
+            }
+            int move = decode(position, Short.toUnsignedInt(entries.getShort(i * ENTRY_BYTES + 8)), moves, legal);
+            if (move != BitboardPosition.NO_MOVE) found.add(new Entry(move, weight));
+        }
+        return found;
+    }
+
+    // A book move chosen by weight, or NO_MOVE if position is not in the book
+    public int pick(BitboardPosition position) {
+        return pick(position, -1L);
+    }
+
+    // As pick, among the moves from the squares set in fromSquares (bit i for square i)
+    public int pick(BitboardPosition position, long fromSquares) {
+        List<Entry> found = lookup(position);
+        long total = 0;
+        for (Entry entry : found) {
+            if ((fromSquares & (1L << BitboardPosition.from(entry.move))) != 0) total += entry.weight;
+        }
+        if (total == 0) return BitboardPosition.NO_MOVE;
+        long r = ThreadLocalRandom.current().nextLong(total);
+        for (Entry entry : found) {
+            if ((fromSquares & (1L << BitboardPosition.from(entry.move))) == 0) continue;
+            r -= entry.weight;
+            if (r < 0) return entry.move;
+        }
+        return BitboardPosition.NO_MOVE; // not reached
+    }
+
+    // Index of the first entry with key, or of the first larger one; keys compare unsigned
+    private int firstEntry(long key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(entries.getLong(mid * ENTRY_BYTES), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // The legal move a Polyglot move stands for, or NO_MOVE
+    private static int decode(BitboardPosition position, int raw, int[] moves, int count) {
+        int to = raw & 63;
+        int from = (raw >>> 6) & 63;
+        int promotion = (raw >>> 12) & 7; // 1 knight to 4 queen, as KNIGHT to QUEEN
+        // Castling is stored as the king taking its own rook
+        int king = position.pieceAt(from);
+        if (king != BitboardPosition.NO_PIECE && king % 6 == BitboardPosition.KING
+                && position.pieceAt(to) == king - BitboardPosition.KING + BitboardPosition.ROOK) {
+            to = (to > from) ? from + 2 : from - 2;
+        }
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            if (BitboardPosition.from(move) != from || BitboardPosition.to(move) != to) continue;
+            if (BitboardPosition.isPromotion(move) ? BitboardPosition.promotionType(move) == promotion : promotion == 0) {
+                return move;
+            }
+        }
+        return BitboardPosition.NO_MOVE;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java -Dchess.book.random=random64.txt OpeningBook book.bin [fen]");
+            System.exit(2);
+        }
+        String random = System.getProperty("chess.book.random");
+        if (random == null) {
+            System.err.println("-Dchess.book.random must name the file of Polyglot Random64 numbers");
+            System.exit(2);
+        }
+        OpeningBook book = new OpeningBook(Paths.get(args[0]), readRandom(Paths.get(random)));
+        BitboardPosition position = new BitboardPosition(args.length > 1 ? args[1] : BitboardPosition.START_FEN);
+        List<Entry> found = book.lookup(position);
+        long total = 0;
+        for (Entry entry : found) {
+            total += entry.weight;
+        }
+        System.out.printf("%d entries, key %016x, %d book moves%n", book.size(), book.key(position), found.size());
+        for (Entry entry : found) {
+            System.out.printf("%-6s weight %5d (%.1f%%)%n", BitboardPosition.toUci(entry.move), entry.weight,
+                    100.0 * entry.weight / total);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import chesspresso.move.Move;
+import chesspresso.position.Position;
+
+/**
+ * Scores the move-quality overlay of every piece of the side to move on a background thread as
+ * soon as a turn begins, so a click on the Board paints from a finished result instead of
+ * waiting for the model. Pieces are sent to MoveScorer in batches of up to
+ * Evaluator.MAX_CACHED_BATCH positions: the piece under the mouse first, then the others by
+ * number of moves, most first. Results are kept per from-square for the position they were
+ * computed in; start() with a new position, or cancel(), abandons the old one.
+ */
+public class OverlayPrescorer {
+    // Moves per batch, leaving one slot for the position itself
+    private static final int BATCH_MOVES = Evaluator.MAX_CACHED_BATCH - 1;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "overlay-prescorer");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Job current;
+    private MoveScorer scorer; // used on the worker thread only
+
+    /** One position's pieces, pending and scored. */
+    private static final class Job {
+        final String fen;
+        final Map<Integer, List<MoveScorer.ScoredMove>> results = new ConcurrentHashMap<>();
+        final int[] pending; // from-squares by number of moves, most first; -1 once taken
+        final int[] moveCounts = new int[64];
+        int priority = -1;
+
+        Job(String fen) {
+            this.fen = fen;
+            BitboardPosition position = new BitboardPosition(fen);
+            int[] moves = new int[BitboardPosition.MAX_MOVES];
+            int count = position.generateLegalMoves(moves, 0);
+            for (int i = 0; i < count; i++) {
+                moveCounts[BitboardPosition.from(moves[i])]++;
+            }
+            pending = orderByMoveCount(moveCounts);
+            // Squares without a legal move, blocked pieces included, are known to be empty at once
+            for (int sq = 0; sq < 64; sq++) {
+                if (moveCounts[sq] == 0) results.put(sq, Collections.emptyList());
+            }
+        }
+
+        // Takes the next pieces whose moves fit in one batch, the prioritised one first; 0 when done
+        synchronized long nextBatch() {
+            long squares = 0;
+            int moves = 0;
+            if (priority >= 0 && take(priority)) {
+                squares |= 1L << priority;
+                moves += moveCounts[priority];
+            }
+            for (int i = 0; i < pending.length; i++) {
+                int sq = pending[i];
+                if (sq < 0 || (squares != 0 && moves + moveCounts[sq] > BATCH_MOVES)) continue;
+                pending[i] = -1;
+                squares |= 1L << sq;
+                moves += moveCounts[sq];
+            }
+            return squares;
+        }
+
+        private boolean take(int sq) {
+            for (int i = 0; i < pending.length; i++) {
+                if (pending[i] == sq) {
+                    pending[i] = -1;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void prioritise(int sq) {
+            priority = sq;
+        }
+    }
+
+    // Squares with at least one move, by number of moves, most first
+    private static int[] orderByMoveCount(int[] moveCounts) {
+        Integer[] squares = new Integer[64];
+        int n = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            if (moveCounts[sq] > 0) squares[n++] = sq;
+        }
+        Arrays.sort(squares, 0, n, (a, b) -> moveCounts[b] - moveCounts[a]);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = squares[i];
+        }
+        return order;
+    }
+
+    // Starts scoring fen, the position at the beginning of a turn, and drops any earlier position
+    public void start(String fen) {
+        Job job;
+        try {
+            job = new Job(fen);
+        } catch (IllegalArgumentException e) {
+            Log.warn("Cannot prescore " + fen, e);
+            return;
+        }
+        current = job;
+        worker.execute(() -> run(job));
+    }
+
+    // Drops the current position, e.g. once a move has been made on it
+    public void cancel() {
+        current = null;
+    }
+
+    // Scores the piece on fromSqi next, if fen is still the position being scored
+    public void prioritise(String fen, int fromSqi) {
+        Job job = current;
+        if (job != null && job.fen.equals(fen)) job.prioritise(fromSqi);
+    }
+
+    // The scored moves of the piece on fromSqi in fen, or null if they are not ready
+    public List<MoveScorer.ScoredMove> get(String fen, int fromSqi) {
+        Job job = current;
+        return (job != null && job.fen.equals(fen)) ? job.results.get(fromSqi) : null;
+    }
+
+    private void run(Job job) {
+        try {
+            if (scorer == null) scorer = new MoveScorer(EvaluatorService.getShared());
+            Position position = new Position(job.fen);
+            long squares;
+            // Stops between batches once the position has been replaced
+            while (current == job && (squares = job.nextBatch()) != 0) {
+                Map<Integer, List<MoveScorer.ScoredMove>> bySquare = new HashMap<>();
+                for (MoveScorer.ScoredMove scored : scorer.scoreMoves(position, squares)) {
+                    bySquare.computeIfAbsent(Move.getFromSqi(scored.move), sq -> new ArrayList<>()).add(scored);
+                }
+                for (long rest = squares; rest != 0; rest &= rest - 1) {
+                    int sq = Long.numberOfTrailingZeros(rest);
+                    job.results.put(sq, bySquare.getOrDefault(sq, new ArrayList<>()));
+                }
+            }
+        } catch (Exception e) {
+            Log.warn("Cannot prescore the move overlays", e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed-record binary form of a fen,score CSV for training, read by ml_model/packed_dataset.py
+ * through a memory map. Little-endian; a 16-byte header (MAGIC, VERSION, RECORD_BYTES) is
+ * followed by one record per position:
+ *
+ *   0   12 x int64  bitboards in BoardEncoder plane order, bit i for square i (a1 = 0)
+ *   96  float32     score in pawns (centipawns / 100, as train_model.py normalizes it)
+ *   100 uint8       side to move, 0 for White and 1 for Black
+ *   101 3 bytes     padding, zero
+ *
+ * Rows that BulkEvaluator would skip (no numeric score, unreadable FEN) are skipped here too.
+ *
+ * Usage: java PackedDataset chess_data.csv chess_data.bin
+ */
+public class PackedDataset {
+    public static final long MAGIC = 0x314B505353454843L; // "CHESSPK1" read as little-endian bytes
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int RECORD_BYTES = 104;
+
+    private static final int SCORE_OFFSET = 96;
+    private static final int SIDE_OFFSET = 100;
+    private static final int BUFFER_RECORDS = 1 << 14;
+
+    private PackedDataset() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java PackedDataset input.csv output.bin");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        long[] counts = convert(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.printf("%d positions written, %d rows skipped in %.1f s%n", counts[0], counts[1],
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    // Returns the number of records written and of rows skipped
+    public static long[] convert(Path input, Path output) throws IOException {
+        long skipped = 0;
+        long[] bitboards = new long[BoardEncoder.PLANE_COUNT];
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ); Writer out = new Writer(output)) {
+            BulkEvaluator.LineReader lines = new BulkEvaluator.LineReader(in);
+            String line;
+            while ((line = lines.next()) != null) {
+                int comma = line.lastIndexOf(',');
+                float score = (comma < 0) ? Float.NaN : BulkEvaluator.parseScore(line, comma + 1);
+                int side;
+                try {
+                    side = Float.isNaN(score) ? -1 : BoardEncoder.parseFen(line.substring(0, comma), bitboards);
+                } catch (IllegalArgumentException e) {
+                    side = -1;
+                }
+                if (side < 0) {
+                    skipped++;
+                    continue;
+                }
+                out.write(bitboards, side, score / 100);
+            }
+            return new long[] { out.getCount(), skipped };
+        }
+    }
+
+    /** Appends records to a new file; not thread-safe. */
+    public static final class Writer implements Closeable {
+        private final FileChannel out;
+        private final ByteBuffer buffer =
+                ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long count;
+
+        public Writer(Path output) throws IOException {
+            out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putLong(MAGIC).putInt(VERSION).putInt(RECORD_BYTES);
+        }
+
+        // score in pawns from White's point of view, side 0 for White and 1 for Black
+        public void write(long[] bitboards, int side, float score) throws IOException {
+            if (buffer.remaining() < RECORD_BYTES) drain();
+            int base = buffer.position();
+            for (int plane = 0; plane < BoardEncoder.PLANE_COUNT; plane++) {
+                buffer.putLong(bitboards[plane]);
+            }
+            buffer.putFloat(base + SCORE_OFFSET, score);
+            buffer.put(base + SIDE_OFFSET, (byte) side);
+            buffer.putShort(base + SIDE_OFFSET + 1, (short) 0).put(base + SIDE_OFFSET + 3, (byte) 0);
+            buffer.position(base + RECORD_BYTES);
+            count++;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
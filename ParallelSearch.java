@@ -0,0 +1,359 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs AlphaBetaSearch on several threads. Configured with -Dchess.threads (default: all cores)
+ * and -Dchess.smp:
+ *
+ * root (default) - at every depth the first root move is searched alone to set the bound, then
+ * the remaining root moves are split across the threads in a fixed stripe. Every thread has its
+ * own transposition table and heuristics, kept from search to search like the shared one, so the
+ * chosen move and score only depend on the thread count and the positions searched so far.
+ *
+ * lazy - Lazy SMP: all threads search the whole tree with the shared transposition table,
+ * helpers on alternating depths and rotated root orders. Usually faster, but not reproducible.
+ *
+ * With one thread this is the plain single-threaded search on the shared table.
+ *
+ * Searches are bounded by SearchLimits; the listener hears about every finished depth with the
+ * node count of all threads.
+ */
+public class ParallelSearch {
+    public enum Mode {
+        ROOT_SPLIT, LAZY_SMP
+    }
+
+    private final Mode mode;
+    private final AlphaBetaSearch[] workers;
+    private final ExecutorService pool;
+    private final TranspositionTable sharedTable;
+
+    private long nodes;
+    private long elapsedNanos;
+    private int bestScore;
+    private int completedDepth;
+    private int ponderMove;
+    private volatile boolean stopRequested;
+    private volatile SearchListener listener;
+
+    public ParallelSearch() {
+        this(Integer.getInteger("chess.threads", Runtime.getRuntime().availableProcessors()),
+                "lazy".equals(System.getProperty("chess.smp")) ? Mode.LAZY_SMP : Mode.ROOT_SPLIT);
+    }
+
+    // The process-wide table is only created when the threads will share it
+    public ParallelSearch(int threads, Mode mode) {
+        this(threads, mode, usesSharedTable(threads, mode) ? TranspositionTable.getShared() : null,
+                Integer.getInteger("chess.hash", 64));
+    }
+
+    // hashMegabytes is split between the private tables of the ROOT_SPLIT threads; sharedTable is
+    // then not used and may be null
+    public ParallelSearch(int threads, Mode mode, TranspositionTable sharedTable, int hashMegabytes) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        boolean privateTables = !usesSharedTable(threads, mode);
+        if (!privateTables && sharedTable == null) {
+            throw new IllegalArgumentException("A shared table is needed for " + mode + " on " + threads + " threads");
+        }
+        this.mode = mode;
+        this.sharedTable = privateTables ? null : sharedTable;
+        this.workers = new AlphaBetaSearch[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new AlphaBetaSearch(privateTables
+                    ? new TranspositionTable(Math.max(1, hashMegabytes / threads)) : sharedTable);
+        }
+        // Only the main thread reports, with the nodes of the helpers added
+        workers[0].setListener(info -> report(info.depth, info.score, info.timeMillis, info.bestMove));
+        this.pool = (threads > 1) ? Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "search-worker");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    // Whether all threads search on one table; ROOT_SPLIT on several threads gives each its own
+    public static boolean usesSharedTable(int threads, Mode mode) {
+        return mode == Mode.LAZY_SMP || threads == 1;
+    }
+
+    public int getThreadCount() {
+        return workers.length;
+    }
+
+    public int search(BitboardPosition position, int maxDepth) {
+        int[] moves = new int[BitboardPosition.MAX_MOVES];
+        int count = position.generateLegalMoves(moves, 0);
+        return search(position, maxDepth, Arrays.copyOf(moves, count));
+    }
+
+    public int search(BitboardPosition position, int maxDepth, int[] rootMoves) {
+        return search(position, SearchLimits.depth(maxDepth), rootMoves);
+    }
+
+    public int search(BitboardPosition position, SearchLimits limits, int[] rootMoves) {
+        long start = System.nanoTime();
+        stopRequested = false;
+        ponderMove = BitboardPosition.NO_MOVE;
+        int best;
+        if (workers.length == 1) {
+            best = workers[0].search(position, limits, rootMoves);
+            bestScore = workers[0].getBestScore();
+            completedDepth = workers[0].getCompletedDepth();
+            ponderMove = workers[0].getPonderMove();
+        } else {
+            // A single worker records its own search; several are recorded here as one
+            SearchEvent event = new SearchEvent();
+            event.begin();
+            for (AlphaBetaSearch worker : workers) {
+                worker.prepare();
+            }
+            best = workers[0].searchTablebase(position, rootMoves);
+            if (best != BitboardPosition.NO_MOVE) {
+                bestScore = workers[0].getBestScore();
+                completedDepth = workers[0].getCompletedDepth();
+            } else {
+                best = (mode == Mode.ROOT_SPLIT) ? searchRootSplit(position, limits, rootMoves, start)
+                        : searchLazy(position, limits, rootMoves, start);
+            }
+            long cutoffs = 0;
+            long tableHits = 0;
+            long evalCacheHits = 0;
+            long total = 0;
+            for (AlphaBetaSearch worker : workers) {
+                total += worker.getNodeCount();
+                cutoffs += worker.getCutoffCount();
+                tableHits += worker.getTableHitCount();
+                evalCacheHits += worker.getEvalCacheHitCount();
+            }
+            Metrics.recordSearch(System.nanoTime() - start, total, cutoffs, tableHits, evalCacheHits);
+            AlphaBetaSearch.commit(event, workers.length, completedDepth, bestScore, best, total, cutoffs,
+                    tableHits, evalCacheHits);
+        }
+
+        nodes = 0;
+        for (AlphaBetaSearch worker : workers) {
+            nodes += worker.getNodeCount();
+        }
+        elapsedNanos = System.nanoTime() - start;
+        return best;
+    }
+
+    public void setListener(SearchListener listener) {
+        this.listener = listener;
+    }
+
+    private void report(int depth, int score, long timeMillis, int bestMove) {
+        SearchListener l = listener;
+        if (l == null) return;
+        long total = 0;
+        for (AlphaBetaSearch worker : workers) {
+            total += worker.getNodeCount(); // helpers are still running, so this is approximate
+        }
+        l.onIteration(new SearchInfo(depth, score, total, timeMillis, bestMove));
+    }
+
+    // The node limit is shared evenly, every thread stops at the same deadline
+    private void applyLimits(SearchLimits limits, int side, long start) {
+        long nodesPerThread = (limits.nodes > 0) ? Math.max(1, limits.nodes / workers.length) : 0;
+        for (AlphaBetaSearch worker : workers) {
+            worker.setLimits(start, limits.softBudgetMillis(side), limits.hardBudgetMillis(side), nodesPerThread);
+        }
+    }
+
+    private int searchRootSplit(BitboardPosition position, SearchLimits limits, int[] rootMoves, long start) {
+        int threads = workers.length;
+        BitboardPosition[] positions = new BitboardPosition[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i].getTable().newSearch();
+            workers[i].prepare();
+            positions[i] = new BitboardPosition(position);
+        }
+        applyLimits(limits, position.getSideToMove(), start);
+
+        int[] moves = rootMoves.clone();
+        bestScore = 0;
+        completedDepth = 0;
+        if (moves.length == 0) return BitboardPosition.NO_MOVE;
+        int best = moves[0];
+        int[] scores = new int[moves.length];
+        int[] replies = new int[moves.length];
+
+        for (int depth = 1; depth <= limits.depth && !stopRequested; depth++) {
+            if (depth > 1 && workers[0].isPastSoftDeadline()) break;
+            final int d = depth;
+            final int alpha = workers[0].searchRootMove(positions[0], moves[0], depth,
+                    -AlphaBetaSearch.INFINITY, AlphaBetaSearch.INFINITY);
+            scores[0] = alpha;
+            replies[0] = workers[0].getLastReply();
+            if (isStopped()) break;
+
+            List<Callable<Void>> tasks = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                tasks.add(() -> {
+                    for (int i = 1 + thread; i < moves.length; i += threads) {
+                        // Null window first; only moves that beat the first one get an open window
+                        int score = workers[thread].searchRootMove(positions[thread], moves[i], d, alpha, alpha + 1);
+                        if (score > alpha) {
+                            score = workers[thread].searchRootMove(positions[thread], moves[i], d, alpha,
+                                    AlphaBetaSearch.INFINITY);
+                        }
+                        scores[i] = score;
+                        replies[i] = workers[thread].getLastReply();
+                    }
+                    return null;
+                });
+            }
+            invokeAll(tasks);
+            if (isStopped()) break;
+
+            int bestIndex = 0;
+            for (int i = 1; i < moves.length; i++) {
+                if (scores[i] > scores[bestIndex]) bestIndex = i;
+            }
+            best = moves[bestIndex];
+            ponderMove = replies[bestIndex];
+            System.arraycopy(moves, 0, moves, 1, bestIndex);
+            moves[0] = best;
+            bestScore = scores[bestIndex];
+            completedDepth = depth;
+            report(depth, bestScore, workers[0].getElapsedMillis(), best);
+        }
+        return best;
+    }
+
+    // Set by stop() or by any worker reaching its node or time limit
+    private boolean isStopped() {
+        if (stopRequested) return true;
+        for (AlphaBetaSearch worker : workers) {
+            if (worker.isStopped()) return true;
+        }
+        return false;
+    }
+
+    private int searchLazy(BitboardPosition position, SearchLimits limits, int[] rootMoves, long start) {
+        sharedTable.newSearch();
+        for (AlphaBetaSearch worker : workers) {
+            worker.prepare();
+        }
+        applyLimits(limits, position.getSideToMove(), start);
+        int maxDepth = limits.depth;
+
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            AlphaBetaSearch helper = workers[i];
+            BitboardPosition copy = new BitboardPosition(position);
+            int[] order = rootMoves.clone();
+            if (order.length > 0) rotate(order, i % order.length);
+            int depth = maxDepth + (i & 1);
+            helpers.add(pool.submit(() -> helper.iterate(copy, depth, order)));
+        }
+
+        int best = workers[0].iterate(new BitboardPosition(position), maxDepth, rootMoves);
+        bestScore = workers[0].getBestScore();
+        completedDepth = workers[0].getCompletedDepth();
+        ponderMove = workers[0].getPonderMove();
+
+        for (int i = 1; i < workers.length; i++) {
+            workers[i].stop();
+        }
+        for (Future<?> helper : helpers) {
+            await(helper);
+        }
+        return best;
+    }
+
+    private static void rotate(int[] moves, int by) {
+        int[] copy = moves.clone();
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = copy[(i + by) % moves.length];
+        }
+    }
+
+    private void invokeAll(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                await(f);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+        }
+    }
+
+    private void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search worker failed", e.getCause());
+        }
+    }
+
+    // Ends the running search; the best move of the last finished depth is kept
+    public void stop() {
+        stopRequested = true;
+        for (AlphaBetaSearch worker : workers) {
+            worker.stop();
+        }
+    }
+
+    public void shutdown() {
+        stop();
+        if (pool != null) pool.shutdownNow();
+    }
+
+    // Empties the tables the threads search with, e.g. for a new game
+    public void clearTables() {
+        if (sharedTable != null) {
+            sharedTable.clear();
+            return;
+        }
+        for (AlphaBetaSearch worker : workers) {
+            worker.getTable().clear();
+        }
+    }
+
+    // Table the first thread searched with, for hit rate and occupancy reporting
+    public TranspositionTable getTable() {
+        return workers[0].getTable();
+    }
+
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    // Nodes of all threads answered by the tablebases in the current or last search
+    public long getTablebaseHitCount() {
+        long hits = 0;
+        for (AlphaBetaSearch worker : workers) {
+            hits += worker.getTablebaseHitCount();
+        }
+        return hits;
+    }
+
+    public long getNodesPerSecond() {
+        return (elapsedNanos == 0) ? 0 : nodes * 1000000000L / elapsedNanos;
+    }
+
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    // The reply the last search expects to its move, or NO_MOVE
+    public int getPonderMove() {
+        return ponderMove;
+    }
+}
@@ -0,0 +1,104 @@
+import chesspresso.move.IllegalMoveException;
+import chesspresso.position.Position;
+
+/**
+ * Perft (leaf node count) verification of BitboardPosition's move generator and make/unmake.
+ * Every test position is counted by BitboardPosition, by chesspresso and against the published
+ * reference counts; on a mismatch the per-move breakdown is printed and the exit code is 1.
+ *
+ * Usage: java Perft [maxDepth]   (default 4)
+ */
+public class Perft {
+    private static final String[] FENS = {
+        BitboardPosition.START_FEN,
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+
+    // Published counts for depths 1 to 5 of the positions above
+    private static final long[][] EXPECTED = {
+        { 20, 400, 8902, 197281, 4865609 },
+        { 48, 2039, 97862, 4085603, 193690690 },
+        { 14, 191, 2812, 43238, 674624 },
+        { 6, 264, 9467, 422333, 15833292 },
+        { 44, 1486, 62379, 2103487, 89941194 },
+        { 46, 2079, 89890, 3894594, 164075551 }
+    };
+
+    public static long perft(BitboardPosition position, int depth) {
+        return perft(position, depth, new int[(depth + 1) * BitboardPosition.MAX_MOVES], 0);
+    }
+
+    private static long perft(BitboardPosition position, int depth, int[] moves, int start) {
+        int end = position.generateLegalMoves(moves, start);
+        if (depth <= 1) return end - start;
+
+        long nodes = 0;
+        for (int i = start; i < end; i++) {
+            position.makeMove(moves[i]);
+            nodes += perft(position, depth - 1, moves, end);
+            position.unmakeMove(moves[i]);
+        }
+        return nodes;
+    }
+
+    public static long perft(Position position, int depth) {
+        short[] moves = position.getAllMoves();
+        if (depth <= 1) return moves.length;
+
+        long nodes = 0;
+        for (short move : moves) {
+            try {
+                position.doMove(move);
+            } catch (IllegalMoveException e) {
+                throw new IllegalStateException("chesspresso rejected its own move " + move, e);
+            }
+            nodes += perft(position, depth - 1);
+            position.undoMove();
+        }
+        return nodes;
+    }
+
+    // Per-move counts, for narrowing a mismatch down to one move
+    public static void divide(BitboardPosition position, int depth) {
+        int[] moves = new int[BitboardPosition.MAX_MOVES];
+        int count = position.generateLegalMoves(moves, 0);
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            long nodes = (depth <= 1) ? 1 : perft(position, depth - 1);
+            position.unmakeMove(moves[i]);
+            System.out.println("  " + BitboardPosition.toUci(moves[i]) + ": " + nodes);
+        }
+    }
+
+    public static void main(String[] args) {
+        int maxDepth = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        boolean ok = true;
+
+        for (int p = 0; p < FENS.length; p++) {
+            System.out.println(FENS[p]);
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                BitboardPosition position = new BitboardPosition(FENS[p]);
+                long start = System.nanoTime();
+                long nodes = perft(position, depth);
+                long elapsed = System.nanoTime() - start;
+                long reference = perft(new Position(FENS[p]), depth);
+                long expected = (depth <= EXPECTED[p].length) ? EXPECTED[p][depth - 1] : reference;
+
+                boolean match = nodes == reference && nodes == expected
+                        && position.getFEN().equals(new BitboardPosition(FENS[p]).getFEN());
+                System.out.printf("  depth %d: %d (chesspresso %d, expected %d) %.0f knps%s%n", depth, nodes,
+                        reference, expected, nodes / Math.max(1e-6, elapsed / 1e6), match ? "" : "  MISMATCH");
+                if (!match) {
+                    divide(position, depth);
+                    ok = false;
+                    break;
+                }
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,40 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one search, from AlphaBetaSearch or ParallelSearch. Recorded with e.g.
+ * -XX:StartFlightRecording=filename=chess.jfr and shown by jfr print --events chess.Search.
+ */
+@Name("chess.Search")
+@Label("Search")
+@Category("Chess")
+@Description("One move search with its totals over all threads")
+public class SearchEvent extends Event {
+    @Label("Threads")
+    public int threads;
+
+    @Label("Completed Depth")
+    public int depth;
+
+    @Label("Score")
+    public int score;
+
+    @Label("Best Move")
+    public String bestMove;
+
+    @Label("Nodes")
+    public long nodes;
+
+    @Label("Beta Cutoffs")
+    public long cutoffs;
+
+    @Label("Table Hits")
+    @Description("Nodes answered from the transposition table")
+    public long tableHits;
+
+    @Label("Eval Cache Hits")
+    public long evalCacheHits;
+}
@@ -0,0 +1,32 @@
+/**
+ * Progress of a running search, reported after every completed iteration.
+ */
+public class SearchInfo {
+    public final int depth;
+    public final int score;
+    public final long nodes;
+    public final long timeMillis;
+    public final int bestMove;
+
+    public SearchInfo(int depth, int score, long nodes, long timeMillis, int bestMove) {
+        this.depth = depth;
+        this.score = score;
+        this.nodes = nodes;
+        this.timeMillis = timeMillis;
+        this.bestMove = bestMove;
+    }
+
+    public long getNodesPerSecond() {
+        return (timeMillis <= 0) ? nodes * 1000 : nodes * 1000 / timeMillis;
+    }
+
+    public boolean isMate() {
+        return Math.abs(score) > AlphaBetaSearch.MATE_BOUND;
+    }
+
+    // Moves until mate, positive if the side to move mates
+    public int getMateIn() {
+        int plies = AlphaBetaSearch.MATE - Math.abs(score);
+        return (score > 0) ? (plies + 1) / 2 : -(plies + 1) / 2;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Limits for one search, modelled on the UCI "go" parameters. Unset values are 0 (or
+ * MAX_DEPTH for depth); with no limit at all the search runs to MAX_DEPTH or until stopped.
+ */
+public class SearchLimits {
+    public static final int MAX_DEPTH = 60;
+
+    // Time kept back for move transmission and GUI overhead when playing on a clock
+    private static final long MOVE_OVERHEAD_MS = 50;
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+
+    public int depth = MAX_DEPTH;
+    public long nodes;
+    public long moveTimeMillis;
+    public long whiteTimeMillis;
+    public long blackTimeMillis;
+    public long whiteIncrementMillis;
+    public long blackIncrementMillis;
+    public int movesToGo;
+    public boolean infinite;
+
+    public static SearchLimits depth(int depth) {
+        SearchLimits limits = new SearchLimits();
+        limits.depth = depth;
+        return limits;
+    }
+
+    public static SearchLimits moveTime(long millis) {
+        SearchLimits limits = new SearchLimits();
+        limits.moveTimeMillis = millis;
+        return limits;
+    }
+
+    // Time after which no new iteration is started, or 0 for none
+    public long softBudgetMillis(int side) {
+        if (infinite) return 0;
+        if (moveTimeMillis > 0) return moveTimeMillis;
+        long time = (side == BitboardPosition.WHITE) ? whiteTimeMillis : blackTimeMillis;
+        if (time <= 0) return 0;
+        long increment = (side == BitboardPosition.WHITE) ? whiteIncrementMillis : blackIncrementMillis;
+        long share = time / (movesToGo > 0 ? movesToGo : DEFAULT_MOVES_TO_GO) + increment * 3 / 4;
+        return Math.max(1, Math.min(share, time - MOVE_OVERHEAD_MS));
+    }
+
+    // Time at which the search is stopped mid-iteration, or 0 for none
+    public long hardBudgetMillis(int side) {
+        if (infinite) return 0;
+        if (moveTimeMillis > 0) return moveTimeMillis;
+        long time = (side == BitboardPosition.WHITE) ? whiteTimeMillis : blackTimeMillis;
+        if (time <= 0) return 0;
+        return Math.max(1, Math.min(softBudgetMillis(side) * 3, time - MOVE_OVERHEAD_MS));
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Receives search progress. Called on the searching thread, so implementations hand the
+ * information over to their own thread (e.g. SwingWorker.publish) instead of doing work here.
+ */
+public interface SearchListener {
+    void onIteration(SearchInfo info);
+}
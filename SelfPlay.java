@@ -0,0 +1,252 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import ai.onnxruntime.OrtException;
+
+/**
+ * Headless engine-vs-engine games for fresh training data. Each thread plays whole games on a
+ * BitboardPosition and writes every position it chose a move in, labelled with the engine's
+ * score from White's point of view blended with the game's result. The output is a fen,score CSV
+ * in centipawns (the format train_model.py reads) or, for a .bin path, a PackedDataset file.
+ *
+ * Moves come from AlphaBetaSearch at the given depth (material or, with -Dchess.eval=network,
+ * the model at the leaves), or with -Dchess.selfplay.player=network from a one-ply batched model
+ * call over all legal moves, as MoveScorer ranks them for the Board overlay. Games are varied by
+ * chess.selfplay.randomPlies uniformly random opening moves (default 8) and a
+ * chess.selfplay.epsilon chance of a random move later on (default 0.05); random moves are not
+ * recorded. chess.selfplay.outcomeWeight (default 0.25) is the share of the label taken from
+ * the result, counted as +-OUTCOME_CENTIPAWNS. Games end by mate, stalemate, the fifty-move rule,
+ * any repetition, bare kings or chess.selfplay.maxPlies (default 400). Games/hour and
+ * positions/second are logged every chess.selfplay.report seconds (default 10).
+ *
+ * Usage: java SelfPlay output.csv|output.bin games [threads] [depth]
+ */
+public class SelfPlay {
+    public enum Player { SEARCH, NETWORK }
+
+    public static final int OUTCOME_CENTIPAWNS = 1000;
+
+    // Search scores beyond this, mates included, are written as this
+    private static final int SCORE_LIMIT = 1500;
+    private static final int HASH_MEGABYTES = 16;
+
+    private final Player player;
+    private final int depth;
+    private final int randomPlies;
+    private final double epsilon;
+    private final int maxPlies;
+    private final double outcomeWeight;
+    private final long seed;
+
+    private final AtomicInteger started = new AtomicInteger();
+    private final LongAdder finished = new LongAdder();
+    private final LongAdder positions = new LongAdder();
+    private final LongAdder whiteWins = new LongAdder();
+    private final LongAdder blackWins = new LongAdder();
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    /** Receives the recorded positions of one game at a time. */
+    private interface Sink extends Closeable {
+        void write(String fen, long[] bitboards, int side, float centipawns) throws IOException;
+    }
+
+    public SelfPlay(Player player, int depth) {
+        this.player = player;
+        this.depth = depth;
+        this.randomPlies = Integer.getInteger("chess.selfplay.randomPlies", 8);
+        this.epsilon = Double.parseDouble(System.getProperty("chess.selfplay.epsilon", "0.05"));
+        this.maxPlies = Integer.getInteger("chess.selfplay.maxPlies", 400);
+        this.outcomeWeight = Double.parseDouble(System.getProperty("chess.selfplay.outcomeWeight", "0.25"));
+        this.seed = Long.getLong("chess.selfplay.seed", System.nanoTime());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java SelfPlay output.csv|output.bin games [threads] [depth]");
+            System.exit(2);
+        }
+        int games = Integer.parseInt(args[1]);
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int depth = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+        String name = System.getProperty("chess.selfplay.player", "search");
+        Player player = Player.valueOf(name.toUpperCase(Locale.ROOT));
+        SelfPlay selfPlay = new SelfPlay(player, depth);
+        selfPlay.run(Paths.get(args[0]), games, threads);
+        System.out.println(selfPlay.report());
+        System.exit(0);
+    }
+
+    public void run(Path output, int games, int threads) throws IOException, InterruptedException {
+        long interval = Math.max(1, Long.getLong("chess.selfplay.report", 10));
+        startNanos = System.nanoTime();
+        endNanos = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "selfplay");
+            t.setDaemon(true);
+            return t;
+        });
+        try (Sink sink = openSink(output)) {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                SplittableRandom random = new SplittableRandom(seed + i);
+                workers.add(pool.submit(() -> {
+                    play(games, random, sink);
+                    return null;
+                }));
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(interval, TimeUnit.SECONDS)) {
+                Log.info("%s", report());
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Self-play failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        endNanos = System.nanoTime();
+    }
+
+    // Games, results and throughput of the current or last run
+    public String report() {
+        long end = (endNanos != 0) ? endNanos : System.nanoTime();
+        double seconds = Math.max((end - startNanos) / 1e9, 1e-9);
+        long games = finished.sum();
+        long white = whiteWins.sum();
+        long black = blackWins.sum();
+        return String.format("%d games (+%d =%d -%d), %d positions, %.0f games/h, %.0f positions/s", games, white,
+                games - white - black, black, positions.sum(), games * 3600 / seconds, positions.sum() / seconds);
+    }
+
+    // Plays games until the shared count reaches games
+    private void play(int games, SplittableRandom random, Sink sink) throws IOException, OrtException {
+        AlphaBetaSearch search =
+                (player == Player.SEARCH) ? new AlphaBetaSearch(new TranspositionTable(HASH_MEGABYTES)) : null;
+        EvaluatorService service = (player == Player.NETWORK) ? EvaluatorService.getShared() : null;
+        FloatBuffer planes = (player == Player.NETWORK) ? BoardEncoder.allocate(BitboardPosition.MAX_MOVES) : null;
+        int[] moves = new int[BitboardPosition.MAX_MOVES];
+
+        List<String> fens = new ArrayList<>();
+        List<long[]> boards = new ArrayList<>();
+        List<Integer> sides = new ArrayList<>();
+        List<Integer> scores = new ArrayList<>();
+        while (started.getAndIncrement() < games) {
+            fens.clear();
+            boards.clear();
+            sides.clear();
+            scores.clear();
+            BitboardPosition position = new BitboardPosition();
+            int result;
+            for (int ply = 0;; ply++) {
+                int count = position.generateLegalMoves(moves, 0);
+                int side = position.getSideToMove();
+                if (count == 0) {
+                    result = !position.isInCheck() ? 0 : (side == BitboardPosition.WHITE) ? -1 : 1;
+                    break;
+                }
+                if (ply >= maxPlies || position.getHalfmoveClock() >= 100 || position.isRepetition()
+                        || Long.bitCount(position.getOccupied()) == 2) {
+                    result = 0;
+                    break;
+                }
+                int move;
+                if (ply < randomPlies || random.nextDouble() < epsilon) {
+                    move = moves[random.nextInt(count)];
+                } else {
+                    int score; // centipawns for White
+                    if (search != null) {
+                        move = search.search(position, depth);
+                        score = (side == BitboardPosition.WHITE) ? search.getBestScore() : -search.getBestScore();
+                    } else {
+                        float[] evals = scoreMoves(position, moves, count, service, planes);
+                        int best = 0;
+                        for (int i = 1; i < count; i++) {
+                            if ((side == BitboardPosition.WHITE) == (evals[i] > evals[best])) best = i;
+                        }
+                        move = moves[best];
+                        score = Math.round(Math.max(-SCORE_LIMIT, Math.min(SCORE_LIMIT, evals[best] * 100)));
+                    }
+                    fens.add(position.getFEN());
+                    boards.add(position.getBitboards().clone());
+                    sides.add(side);
+                    scores.add(Math.max(-SCORE_LIMIT, Math.min(SCORE_LIMIT, score)));
+                }
+                position.makeMove(move);
+            }
+
+            synchronized (sink) {
+                for (int i = 0; i < fens.size(); i++) {
+                    double label = (1 - outcomeWeight) * scores.get(i) + outcomeWeight * result * OUTCOME_CENTIPAWNS;
+                    sink.write(fens.get(i), boards.get(i), sides.get(i), (float) label);
+                }
+            }
+            positions.add(fens.size());
+            finished.increment();
+            if (result > 0) whiteWins.increment();
+            if (result < 0) blackWins.increment();
+        }
+    }
+
+    // Model scores, in pawns for White, of the position after each move, in one batched call
+    private static float[] scoreMoves(BitboardPosition position, int[] moves, int count, EvaluatorService service,
+            FloatBuffer planes) throws OrtException {
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            BoardEncoder.encode(position.getBitboards(), planes, i);
+            position.unmakeMove(moves[i]);
+        }
+        return service.evaluateBatch(planes, count);
+    }
+
+    private static Sink openSink(Path output) throws IOException {
+        if (output.toString().endsWith(".bin")) {
+            PackedDataset.Writer writer = new PackedDataset.Writer(output);
+            return new Sink() {
+                @Override
+                public void write(String fen, long[] bitboards, int side, float centipawns) throws IOException {
+                    writer.write(bitboards, side, centipawns / 100);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    writer.close();
+                }
+            };
+        }
+        BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+        return new Sink() {
+            @Override
+            public void write(String fen, long[] bitboards, int side, float centipawns) throws IOException {
+                writer.write(fen);
+                writer.write(',');
+                writer.write(Integer.toString(Math.round(centipawns)));
+                writer.newLine();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,939 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Syzygy endgame tablebases: the win/draw/loss (.rtbw) and distance-to-zeroing (.rtbz) files in
+ * the directories named by -Dchess.tb, e.g. tablebases/KRPvKR.rtbw. Tables are found by file name
+ * when the tablebases are opened and memory-mapped read-only the first time a position needs them,
+ * so every search thread probes the same pages. Decoding follows the reference probing code by
+ * Ronald de Man as it is found in Stockfish: a table is split by side to move and, with pawns, by
+ * the file of the leading pawn, and each part is a run of Huffman-coded blocks of Re-Pair symbols
+ * reached through a sparse index.
+ *
+ * WDL values are from the side to move's view and assume the halfmove clock is 0: a cursed win is
+ * a win the fifty-move rule turns into a draw, a blessed loss the other way round. DTZ is the
+ * number of plies to the next capture, pawn move or mate with best play, negative when losing.
+ * Positions with castling rights are not in the tables.
+ */
+public class Tablebase {
+    public static final int NO_SCORE = Integer.MIN_VALUE;
+
+    public static final int LOSS = -2;
+    public static final int BLESSED_LOSS = -1;
+    public static final int DRAW = 0;
+    public static final int CURSED_WIN = 1;
+    public static final int WIN = 2;
+
+    private static final int MAX_TABLE_PIECES = 7;
+
+    private static final int WDL_MAGIC = 0x5D23E871; // bytes 71 E8 23 5D read as little-endian
+    private static final int DTZ_MAGIC = 0xA50C66D7; // bytes D7 66 0C A5
+
+    // Per part flags
+    private static final int FLAG_STM = 1;
+    private static final int FLAG_MAPPED = 2;
+    private static final int FLAG_WIN_PLIES = 4;
+    private static final int FLAG_LOSS_PLIES = 8;
+    private static final int FLAG_WIDE = 16;
+    private static final int FLAG_SINGLE_VALUE = 128;
+
+    // Probe states besides OK: the tables cannot answer, the best move is a winning capture or
+    // pawn move whose DTZ the table does not hold, or the DTZ table is for the other side to move
+    private static final int OK = 0;
+    private static final int FAIL = 1;
+    private static final int ZEROING_BEST_MOVE = 2;
+    private static final int CHANGE_STM = 3;
+
+    // DTZ map of each WDL value plus 2: win, loss, cursed win, blessed loss
+    private static final int[] WDL_MAP = { 1, 3, 0, 2, 0 };
+
+    // Index tables, set up as in the reference code
+    private static final int[] MAP_PAWNS = new int[64];
+    private static final int[] MAP_B1H1H7 = new int[64];
+    private static final int[] MAP_A1D1D4 = new int[64];
+    private static final int[][] MAP_KK = new int[10][64];
+    private static final long[][] BINOMIAL = new long[MAX_TABLE_PIECES][64];
+    private static final int[][] LEAD_PAWN_IDX = new int[MAX_TABLE_PIECES][64];
+    private static final int[][] LEAD_PAWNS_SIZE = new int[MAX_TABLE_PIECES][4];
+
+    static {
+        int code = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            if (offA1H8(sq) < 0) MAP_B1H1H7[sq] = code++;
+        }
+
+        // The a1-d1-d4 triangle, the diagonal squares last
+        code = 0;
+        List<Integer> diagonal = new ArrayList<>();
+        for (int sq = 0; sq <= 27; sq++) {
+            if (offA1H8(sq) < 0 && (sq & 7) <= 3) {
+                MAP_A1D1D4[sq] = code++;
+            } else if (offA1H8(sq) == 0 && (sq & 7) <= 3) {
+                diagonal.add(sq);
+            }
+        }
+        for (int sq : diagonal) {
+            MAP_A1D1D4[sq] = code++;
+        }
+
+        // The 462 king pairs with the first king in the triangle, both on the diagonal last
+        code = 0;
+        List<int[]> bothOnDiagonal = new ArrayList<>();
+        for (int idx = 0; idx < 10; idx++) {
+            for (int s1 = 0; s1 <= 27; s1++) {
+                if (MAP_A1D1D4[s1] != idx || (idx == 0 && s1 != 1)) continue; // b1 is mapped to 0
+                for (int s2 = 0; s2 < 64; s2++) {
+                    if (((BitboardPosition.kingAttacks(s1) | (1L << s1)) & (1L << s2)) != 0) continue;
+                    if (offA1H8(s1) == 0 && offA1H8(s2) > 0) continue;
+                    if (offA1H8(s1) == 0 && offA1H8(s2) == 0) {
+                        bothOnDiagonal.add(new int[] { idx, s2 });
+                    } else {
+                        MAP_KK[idx][s2] = code++;
+                    }
+                }
+            }
+        }
+        for (int[] pair : bothOnDiagonal) {
+            MAP_KK[pair[0]][pair[1]] = code++;
+        }
+
+        BINOMIAL[0][0] = 1;
+        for (int n = 1; n < 64; n++) {
+            for (int k = 0; k < MAX_TABLE_PIECES && k <= n; k++) {
+                BINOMIAL[k][n] = (k > 0 ? BINOMIAL[k - 1][n - 1] : 0) + (k < n ? BINOMIAL[k][n - 1] : 0);
+            }
+        }
+
+        // Pawn squares a2-h7 from 47 down, so the leading pawn is the one with the highest value:
+        // nearest the edge, then lowest
+        int available = 47;
+        for (int leadPawns = 1; leadPawns <= 5; leadPawns++) {
+            for (int file = 0; file < 4; file++) {
+                int idx = 0;
+                for (int rank = 1; rank <= 6; rank++) {
+                    int sq = rank * 8 + file;
+                    if (leadPawns == 1) {
+                        MAP_PAWNS[sq] = available--;
+                        MAP_PAWNS[sq ^ 7] = available--;
+                    }
+                    LEAD_PAWN_IDX[leadPawns][sq] = idx;
+                    idx += BINOMIAL[leadPawns - 1][MAP_PAWNS[sq]];
+                }
+                LEAD_PAWNS_SIZE[leadPawns][file] = idx;
+            }
+        }
+    }
+
+    private static Tablebase shared;
+    private static boolean sharedOpened;
+
+    // Open addressing by material key
+    private final long[] keys;
+    private final Table[] wdlTables;
+    private final Table[] dtzTables;
+    private final int tableCount;
+    private final int maxPieces;
+    private final ThreadLocal<Probe> probes = ThreadLocal.withInitial(Probe::new);
+    private final LongAdder hits = new LongAdder();
+
+    // Finds the tables in the given directories; a DTZ file without its WDL file is ignored
+    public Tablebase(List<Path> directories) throws IOException {
+        List<Table> found = new ArrayList<>();
+        for (Path directory : directories) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.rtbw")) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    name = name.substring(0, name.length() - ".rtbw".length());
+                    if (name.matches("K[QRBNP]*vK[QRBNP]*") && name.length() - 1 <= MAX_TABLE_PIECES) {
+                        found.add(new Table(name, file, false));
+                        found.add(new Table(name, file.resolveSibling(name + ".rtbz"), true));
+                    }
+                }
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(found.size(), 8)) * 4;
+        keys = new long[capacity];
+        wdlTables = new Table[capacity];
+        dtzTables = new Table[capacity];
+        int pieces = 0;
+        for (Table table : found) {
+            // Registered for both colours, e.g. KRvK with the rook White's and with it Black's
+            insert(table.key, table);
+            insert(table.key2, table);
+            pieces = Math.max(pieces, table.pieceCount);
+        }
+        tableCount = found.size() / 2;
+        maxPieces = pieces;
+    }
+
+    // The tables in the chess.tb directories (separated like a class path), found once; null if
+    // none are configured or found
+    public static synchronized Tablebase getShared() {
+        if (!sharedOpened) {
+            sharedOpened = true;
+            String path = System.getProperty("chess.tb");
+            if (path != null && !path.isEmpty()) {
+                List<Path> directories = new ArrayList<>();
+                for (String directory : path.split(File.pathSeparator)) {
+                    if (!directory.isEmpty()) directories.add(Paths.get(directory));
+                }
+                try {
+                    Tablebase tablebase = new Tablebase(directories);
+                    if (tablebase.tableCount > 0) {
+                        shared = tablebase;
+                        Log.info("Found %d Syzygy tables of up to %d pieces in %s", tablebase.tableCount,
+                                tablebase.maxPieces, path);
+                    } else {
+                        Log.warn("No Syzygy tables in " + path, null);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.warn("Cannot open the tablebases in " + path, e);
+                }
+            }
+        }
+        return shared;
+    }
+
+    // Largest number of pieces, kings included, of any table found
+    public int getMaxPieces() {
+        return maxPieces;
+    }
+
+    // Whether position has few enough pieces to be looked up; it may still miss if a table is absent
+    public boolean covers(BitboardPosition position) {
+        return Long.bitCount(position.getOccupied()) <= maxPieces && position.getCastling() == 0;
+    }
+
+    // Score of position from the side to move's view at ply plies from the root, as the search
+    // uses them: AlphaBetaSearch.TABLEBASE_WIN - ply for a win, 1 or -1 for a cursed win or blessed
+    // loss, 0 for a draw, or NO_SCORE if the position is not in the tables. Only exact when the
+    // halfmove clock is 0.
+    public int probe(BitboardPosition position, int ply) {
+        int wdl = probeWdl(position);
+        if (wdl == NO_SCORE) return NO_SCORE;
+        if (wdl == WIN) return AlphaBetaSearch.TABLEBASE_WIN - ply;
+        if (wdl == LOSS) return -AlphaBetaSearch.TABLEBASE_WIN + ply;
+        return wdl;
+    }
+
+    // LOSS to WIN for the side to move, or NO_SCORE if the position is not in the tables
+    public int probeWdl(BitboardPosition position) {
+        if (!covers(position)) return NO_SCORE;
+        Probe probe = probes.get();
+        probe.state = OK;
+        int wdl = probe.search(position, false, 0);
+        if (probe.state == FAIL) return NO_SCORE;
+        hits.increment();
+        return wdl;
+    }
+
+    // Distance to zeroing in plies, positive when the side to move wins and 0 for a draw; cursed
+    // wins and blessed losses count 100 more. NO_SCORE if the position or its DTZ table is missing.
+    public int probeDtz(BitboardPosition position) {
+        if (!covers(position)) return NO_SCORE;
+        Probe probe = probes.get();
+        int dtz = probe.probeDtz(position, 0);
+        if (probe.state == FAIL) return NO_SCORE;
+        hits.increment();
+        return dtz;
+    }
+
+    // DTZ of the position just before a zeroing move that leads to a position of value wdl for the
+    // side that made it
+    public static int dtzBeforeZeroing(int wdl) {
+        switch (wdl) {
+            case WIN: return 1;
+            case CURSED_WIN: return 101;
+            case BLESSED_LOSS: return -101;
+            case LOSS: return -1;
+            default: return 0;
+        }
+    }
+
+    // Positions answered from the tables since startup
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "tablebases " + tableCount + " tables up to " + maxPieces + " pieces, hits " + hits.sum();
+    }
+
+    private static int offA1H8(int sq) {
+        return (sq >>> 3) - (sq & 7);
+    }
+
+    // Piece counts by BoardEncoder plane, four bits each
+    private static long materialKey(BitboardPosition position) {
+        long[] bitboards = position.getBitboards();
+        long key = 0;
+        for (int plane = 0; plane < bitboards.length; plane++) {
+            key |= (long) Long.bitCount(bitboards[plane]) << (4 * plane);
+        }
+        return key;
+    }
+
+    private void insert(long key, Table table) {
+        int slot = slot(key);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = key;
+        if (table.dtz) {
+            dtzTables[slot] = table;
+        } else {
+            wdlTables[slot] = table;
+        }
+    }
+
+    private Table lookup(long key, boolean dtz) {
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == key) return dtz ? dtzTables[slot] : wdlTables[slot];
+        }
+        return null;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & (keys.length - 1);
+    }
+
+    // ======================================================================
+    // Tables
+
+    // Decoding data of one part of a table: a side to move and, with pawns, a leading pawn file.
+    // Positions are byte offsets into the mapped file.
+    private static final class Part {
+        int flags;
+        int minSymLen;
+        int blockSize;
+        long span;
+        int blockCount;
+        int blockLengthSize;
+        int sparseIndexSize;
+        int lowestSym;
+        int btree;
+        int sparseIndex;
+        int blockLength;
+        int data;
+        long[] base64;
+        int[] symlen;
+        // Piece codes (colour << 3 | type + 1) in table order; the groups they form and where each
+        // group's index starts
+        final int[] pieces = new int[MAX_TABLE_PIECES];
+        final int[] groupLen = new int[MAX_TABLE_PIECES + 1];
+        final long[] groupIdx = new long[MAX_TABLE_PIECES + 1];
+        final int[] mapIdx = new int[4];
+    }
+
+    private static final class Table {
+        final Path file;
+        final boolean dtz;
+        final long key;  // with the first side of the name White's
+        final long key2; // with it Black's
+        final int pieceCount;
+        final boolean hasPawns;
+        final boolean hasUniquePieces;
+        final int[] pawnCount = new int[2]; // leading colour, other colour
+        final Part[][] parts = new Part[2][4];
+        ByteBuffer buffer;
+        int map;
+        volatile boolean ready;
+
+        Table(String name, Path file, boolean dtz) {
+            this.file = file;
+            this.dtz = dtz;
+            int[] counts = new int[12];
+            int color = BitboardPosition.WHITE;
+            for (char c : name.toCharArray()) {
+                if (c == 'v') {
+                    color = BitboardPosition.BLACK;
+                } else {
+                    counts[color * 6 + "PNBRQK".indexOf(c)]++;
+                }
+            }
+            long key = 0;
+            long key2 = 0;
+            boolean unique = false;
+            for (int plane = 0; plane < 12; plane++) {
+                key |= (long) counts[plane] << (4 * plane);
+                key2 |= (long) counts[(plane + 6) % 12] << (4 * plane);
+                if (plane % 6 != BitboardPosition.KING && counts[plane] == 1) unique = true;
+            }
+            this.key = key;
+            this.key2 = key2;
+            pieceCount = name.length() - 1;
+            int whitePawns = counts[BitboardPosition.PAWN];
+            int blackPawns = counts[6 + BitboardPosition.PAWN];
+            hasPawns = whitePawns + blackPawns > 0;
+            hasUniquePieces = unique;
+            // The side with fewer pawns leads, which compresses better
+            boolean whiteLeads = blackPawns == 0 || (whitePawns > 0 && blackPawns >= whitePawns);
+            pawnCount[0] = whiteLeads ? whitePawns : blackPawns;
+            pawnCount[1] = whiteLeads ? blackPawns : whitePawns;
+        }
+
+        Part part(int stm, int file) {
+            return parts[dtz ? 0 : stm][hasPawns ? file : 0];
+        }
+    }
+
+    // Maps and parses table on first use; false if its file is missing or unreadable
+    private static boolean map(Table table) {
+        if (table.ready) return table.buffer != null;
+        synchronized (table) {
+            if (!table.ready) {
+                if (Files.isRegularFile(table.file)) {
+                    try (FileChannel channel = FileChannel.open(table.file, StandardOpenOption.READ)) {
+                        if (channel.size() > Integer.MAX_VALUE) throw new IOException("larger than 2 GB");
+                        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                                .order(ByteOrder.LITTLE_ENDIAN);
+                        if (buffer.getInt(0) != (table.dtz ? DTZ_MAGIC : WDL_MAGIC)) throw new IOException("bad magic");
+                        parse(table, buffer);
+                        table.buffer = buffer;
+                    } catch (IOException | RuntimeException e) {
+                        Log.warn("Cannot read tablebase " + table.file, e);
+                    }
+                }
+                table.ready = true;
+            }
+        }
+        return table.buffer != null;
+    }
+
+    private static void parse(Table table, ByteBuffer b) throws IOException {
+        int sides = (!table.dtz && table.key != table.key2) ? 2 : 1;
+        int files = table.hasPawns ? 4 : 1;
+        boolean bothPawns = table.hasPawns && table.pawnCount[1] > 0;
+        int p = 5; // magic, then split and pawn flags the name already told
+        for (int f = 0; f < files; f++) {
+            int order = b.get(p) & 0xFF;
+            int order2 = bothPawns ? b.get(p + 1) & 0xFF : 0xFF;
+            p += bothPawns ? 2 : 1;
+            for (int i = 0; i < sides; i++) {
+                table.parts[i][f] = new Part();
+            }
+            for (int k = 0; k < table.pieceCount; k++, p++) {
+                int code = b.get(p) & 0xFF;
+                for (int i = 0; i < sides; i++) {
+                    table.parts[i][f].pieces[k] = (i == 0) ? code & 0xF : code >>> 4;
+                }
+            }
+            for (int i = 0; i < sides; i++) {
+                int shift = 4 * i;
+                setGroups(table, table.parts[i][f], (order >>> shift) & 0xF, (order2 >>> shift) & 0xF, f);
+            }
+        }
+        p += p & 1;
+        for (int f = 0; f < files; f++) {
+            for (int i = 0; i < sides; i++) {
+                p = setSizes(table.parts[i][f], b, p);
+            }
+        }
+        if (table.dtz) {
+            table.map = p;
+            for (int f = 0; f < files; f++) {
+                Part part = table.parts[0][f];
+                if ((part.flags & FLAG_MAPPED) == 0) continue;
+                if ((part.flags & FLAG_WIDE) != 0) {
+                    p += p & 1;
+                    for (int i = 0; i < 4; i++) {
+                        part.mapIdx[i] = (p - table.map) / 2 + 1;
+                        p += 2 * (b.getShort(p) & 0xFFFF) + 2;
+                    }
+                } else {
+                    for (int i = 0; i < 4; i++) {
+                        part.mapIdx[i] = p - table.map + 1;
+                        p += (b.get(p) & 0xFF) + 1;
+                    }
+                }
+            }
+            p += p & 1;
+        }
+        for (int f = 0; f < files; f++) {
+            for (int i = 0; i < sides; i++) {
+                table.parts[i][f].sparseIndex = p;
+                p += 6 * table.parts[i][f].sparseIndexSize;
+            }
+        }
+        for (int f = 0; f < files; f++) {
+            for (int i = 0; i < sides; i++) {
+                table.parts[i][f].blockLength = p;
+                p += 2 * table.parts[i][f].blockLengthSize;
+            }
+        }
+        long end = p;
+        for (int f = 0; f < files; f++) {
+            for (int i = 0; i < sides; i++) {
+                Part part = table.parts[i][f];
+                end = (end + 0x3F) & ~0x3F;
+                part.data = (int) end;
+                end += (long) part.blockCount * part.blockSize;
+            }
+        }
+        if (end > b.limit()) throw new IOException("truncated");
+    }
+
+    // Splits the pieces into groups encoded together: the leading pieces or pawns, then runs of
+    // equal pieces, e.g. KRvKN as (K, R, K), N. order and order2 place the leading group and the
+    // other side's pawns in the index; the remaining groups follow.
+    private static void setGroups(Table table, Part part, int order, int order2, int file) {
+        int n = 0;
+        int firstLen = table.hasPawns ? 0 : table.hasUniquePieces ? 3 : 2;
+        part.groupLen[n] = 1;
+        for (int i = 1; i < table.pieceCount; i++) {
+            if (--firstLen > 0 || part.pieces[i] == part.pieces[i - 1]) {
+                part.groupLen[n]++;
+            } else {
+                part.groupLen[++n] = 1;
+            }
+        }
+        part.groupLen[++n] = 0;
+
+        boolean bothPawns = table.hasPawns && table.pawnCount[1] > 0;
+        int next = bothPawns ? 2 : 1;
+        int freeSquares = 64 - part.groupLen[0] - (bothPawns ? part.groupLen[1] : 0);
+        long idx = 1;
+        for (int k = 0; next < n || k == order || k == order2; k++) {
+            if (k == order) {
+                part.groupIdx[0] = idx;
+                idx *= table.hasPawns ? LEAD_PAWNS_SIZE[part.groupLen[0]][file] : table.hasUniquePieces ? 31332 : 462;
+            } else if (k == order2) {
+                part.groupIdx[1] = idx;
+                idx *= BINOMIAL[part.groupLen[1]][48 - part.groupLen[0]];
+            } else {
+                part.groupIdx[next] = idx;
+                idx *= BINOMIAL[part.groupLen[next]][freeSquares];
+                freeSquares -= part.groupLen[next++];
+            }
+        }
+        part.groupIdx[n] = idx;
+    }
+
+    // Reads the Huffman code of a part: canonical codes by length, then the Re-Pair tree that
+    // expands every symbol into the values it stands for
+    private static int setSizes(Part part, ByteBuffer b, int p) {
+        part.flags = b.get(p++) & 0xFF;
+        if ((part.flags & FLAG_SINGLE_VALUE) != 0) {
+            part.minSymLen = b.get(p++) & 0xFF; // the value itself
+            return p;
+        }
+        int groups = 0;
+        while (part.groupLen[groups] != 0) {
+            groups++;
+        }
+        long size = part.groupIdx[groups];
+        part.blockSize = 1 << (b.get(p++) & 0xFF);
+        part.span = 1L << (b.get(p++) & 0xFF);
+        part.sparseIndexSize = (int) ((size + part.span - 1) / part.span);
+        int padding = b.get(p++) & 0xFF;
+        part.blockCount = b.getInt(p);
+        p += 4;
+        part.blockLengthSize = part.blockCount + padding;
+        int maxSymLen = b.get(p++) & 0xFF;
+        part.minSymLen = b.get(p++) & 0xFF;
+        part.lowestSym = p;
+        long[] base64 = new long[maxSymLen - part.minSymLen + 1];
+        for (int i = base64.length - 2; i >= 0; i--) {
+            base64[i] = (base64[i + 1] + (b.getShort(p + 2 * i) & 0xFFFF) - (b.getShort(p + 2 * i + 2) & 0xFFFF)) / 2;
+        }
+        for (int i = 0; i < base64.length; i++) {
+            base64[i] <<= 64 - i - part.minSymLen;
+        }
+        part.base64 = base64;
+        p += 2 * base64.length;
+        int symbols = b.getShort(p) & 0xFFFF;
+        p += 2;
+        part.btree = p;
+        part.symlen = new int[symbols];
+        boolean[] visited = new boolean[symbols];
+        for (int sym = 0; sym < symbols; sym++) {
+            if (!visited[sym]) part.symlen[sym] = symlen(part, b, sym, visited);
+        }
+        return p + 3 * symbols + (symbols & 1);
+    }
+
+    // Number of values minus one that sym expands to
+    private static int symlen(Part part, ByteBuffer b, int sym, boolean[] visited) {
+        visited[sym] = true;
+        int right = right(part, b, sym);
+        if (right == 0xFFF) return 0;
+        int left = left(part, b, sym);
+        if (!visited[left]) part.symlen[left] = symlen(part, b, left, visited);
+        if (!visited[right]) part.symlen[right] = symlen(part, b, right, visited);
+        return part.symlen[left] + part.symlen[right] + 1;
+    }
+
+    // A tree entry is three bytes, two 12-bit symbols; a leaf holds its value on the left
+    private static int left(Part part, ByteBuffer b, int sym) {
+        int p = part.btree + 3 * sym;
+        return ((b.get(p + 1) & 0xF) << 8) | (b.get(p) & 0xFF);
+    }
+
+    private static int right(Part part, ByteBuffer b, int sym) {
+        int p = part.btree + 3 * sym;
+        return ((b.get(p + 2) & 0xFF) << 4) | ((b.get(p + 1) & 0xFF) >>> 4);
+    }
+
+    // The value stored at idx. Block n holds blockLength[n] + 1 values; sparse index entry k gives
+    // the block and offset of value k * span + span / 2, and the blocks are walked from there.
+    private static int decompress(Part part, ByteBuffer b, long idx) {
+        if ((part.flags & FLAG_SINGLE_VALUE) != 0) return part.minSymLen;
+
+        int entry = part.sparseIndex + 6 * (int) (idx / part.span);
+        int block = b.getInt(entry);
+        int offset = (b.getShort(entry + 4) & 0xFFFF) + (int) (idx % part.span - part.span / 2);
+        while (offset < 0) {
+            offset += blockLength(part, b, --block) + 1;
+        }
+        while (offset > blockLength(part, b, block)) {
+            offset -= blockLength(part, b, block++) + 1;
+        }
+
+        // Codes are read big-endian; longer codes have lower values
+        int p = part.data + block * part.blockSize;
+        long buffer = bigEndian(b, p, 8);
+        p += 8;
+        int bits = 64;
+        int sym;
+        while (true) {
+            int len = 0;
+            while (Long.compareUnsigned(buffer, part.base64[len]) < 0) {
+                len++;
+            }
+            sym = (int) ((buffer - part.base64[len]) >>> (64 - len - part.minSymLen));
+            sym = (sym + (b.getShort(part.lowestSym + 2 * len) & 0xFFFF)) & 0xFFFF;
+            if (offset < part.symlen[sym] + 1) break;
+            offset -= part.symlen[sym] + 1;
+            len += part.minSymLen;
+            buffer <<= len;
+            bits -= len;
+            if (bits <= 32) {
+                bits += 32;
+                buffer |= bigEndian(b, p, 4) << (64 - bits);
+                p += 4;
+            }
+        }
+
+        // Symbols in a pair are adjacent, so the offset picks the side to expand
+        while (part.symlen[sym] != 0) {
+            int left = left(part, b, sym);
+            if (offset < part.symlen[left] + 1) {
+                sym = left;
+            } else {
+                offset -= part.symlen[left] + 1;
+                sym = right(part, b, sym);
+            }
+        }
+        return left(part, b, sym);
+    }
+
+    private static int blockLength(Part part, ByteBuffer b, int block) {
+        return b.getShort(part.blockLength + 2 * block) & 0xFFFF;
+    }
+
+    // Unsigned big-endian number of the given bytes at p; bytes past the end of the file read as 0
+    private static long bigEndian(ByteBuffer b, int p, int bytes) {
+        if (bytes == 8 && p + 8 <= b.limit()) return Long.reverseBytes(b.getLong(p));
+        if (bytes == 4 && p + 4 <= b.limit()) return Integer.reverseBytes(b.getInt(p)) & 0xFFFFFFFFL;
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | ((p + i < b.limit()) ? b.get(p + i) & 0xFF : 0);
+        }
+        return value;
+    }
+
+    // ======================================================================
+    // Probing
+    //
+    // Tables do not hold en passant rights and store don't-care values where the best move is a
+    // capture, so captures (and, for DTZ, pawn moves) are searched before a table is trusted.
+
+    private final class Probe {
+        // One slice of moves per recursion level: captures reduce the pieces, and a DTZ probe for
+        // the side the table does not hold adds a ply and a nested probe
+        final int[] moves = new int[BitboardPosition.MAX_MOVES * (2 * MAX_TABLE_PIECES + 4)];
+        final int[] squares = new int[MAX_TABLE_PIECES];
+        final int[] pieces = new int[MAX_TABLE_PIECES];
+        int state;
+
+        // WDL value of the side to move; with zeroing, pawn moves are searched too and the state
+        // tells whether a capture or pawn move is best
+        int search(BitboardPosition position, boolean zeroing, int level) {
+            int start = level * BitboardPosition.MAX_MOVES;
+            if (start + BitboardPosition.MAX_MOVES > moves.length) {
+                state = FAIL;
+                return DRAW;
+            }
+            int end = position.generateLegalMoves(moves, start);
+            int searched = 0;
+            int best = LOSS;
+            for (int i = start; i < end; i++) {
+                int move = moves[i];
+                if (!BitboardPosition.isCapture(move) && (!zeroing || !isPawnMove(position, move))) continue;
+                searched++;
+                position.makeMove(move);
+                int value = -search(position, false, level + 1);
+                position.unmakeMove(move);
+                if (state == FAIL) return DRAW;
+                if (value > best) {
+                    best = value;
+                    if (value >= WIN) {
+                        state = ZEROING_BEST_MOVE;
+                        return value;
+                    }
+                }
+            }
+
+            // With every move searched the table is not needed, and may be wrong with en passant
+            boolean allSearched = searched > 0 && searched == end - start;
+            int value = best;
+            if (!allSearched) {
+                value = probeTable(position, false, DRAW);
+                if (state == FAIL) return DRAW;
+            }
+            if (best >= value) {
+                state = (best > DRAW || allSearched) ? ZEROING_BEST_MOVE : OK;
+                return best;
+            }
+            state = OK;
+            return value;
+        }
+
+        int probeDtz(BitboardPosition position, int level) {
+            state = OK;
+            int wdl = search(position, true, level);
+            if (state == FAIL || wdl == DRAW) return 0;
+            if (state == ZEROING_BEST_MOVE) return dtzBeforeZeroing(wdl);
+            int dtz = probeTable(position, true, wdl);
+            if (state == FAIL) return 0;
+            if (state != CHANGE_STM) {
+                return (dtz + ((wdl == CURSED_WIN || wdl == BLESSED_LOSS) ? 100 : 0)) * Integer.signum(wdl);
+            }
+
+            // The table holds the other side to move: take the best DTZ after one ply
+            int start = level * BitboardPosition.MAX_MOVES;
+            int end = position.generateLegalMoves(moves, start);
+            int minDtz = 0xFFFF;
+            for (int i = start; i < end; i++) {
+                int move = moves[i];
+                boolean zeroingMove = BitboardPosition.isCapture(move) || isPawnMove(position, move);
+                position.makeMove(move);
+                // A zeroing move's DTZ is known from the sign of the position it reaches
+                dtz = zeroingMove ? -dtzBeforeZeroing(search(position, false, level + 1)) : -probeDtz(position, level + 1);
+                if (dtz == 1 && position.isInCheck() && !hasLegalMove(position, level + 1)) minDtz = 1;
+                if (!zeroingMove) dtz += Integer.signum(dtz);
+                if (dtz < minDtz && Integer.signum(dtz) == Integer.signum(wdl)) minDtz = dtz;
+                position.unmakeMove(move);
+                if (state == FAIL) return 0;
+            }
+            return (minDtz == 0xFFFF) ? -1 : minDtz; // no legal moves: mated
+        }
+
+        private boolean hasLegalMove(BitboardPosition position, int level) {
+            int start = level * BitboardPosition.MAX_MOVES;
+            return start + BitboardPosition.MAX_MOVES <= moves.length && position.generateLegalMoves(moves, start) > start;
+        }
+
+        private boolean isPawnMove(BitboardPosition position, int move) {
+            return position.pieceAt(BitboardPosition.from(move)) % 6 == BitboardPosition.PAWN;
+        }
+
+        // The table's value for position: a WDL value, or for DTZ the distance for the given WDL
+        int probeTable(BitboardPosition position, boolean dtz, int wdl) {
+            if (Long.bitCount(position.getOccupied()) == 2) return DRAW; // bare kings
+            long key = materialKey(position);
+            Table table = lookup(key, dtz);
+            if (table == null || !map(table)) {
+                state = FAIL;
+                return 0;
+            }
+
+            // Tables have the side named first as White. The other colouring, and black to move
+            // when both sides have the same pieces, is looked up with colours swapped and the
+            // board flipped.
+            int side = position.getSideToMove();
+            boolean flip = key != table.key || (table.key == table.key2 && side == BitboardPosition.BLACK);
+            int flipColor = flip ? 8 : 0;
+            int flipSquares = flip ? 56 : 0;
+            int stm = side ^ (flip ? 1 : 0);
+
+            // With pawns, the table is split by the file of the leading pawn, taken as a-d
+            int size = 0;
+            int leadPawnCount = 0;
+            int file = 0;
+            long leadPawns = 0;
+            if (table.hasPawns) {
+                int pawn = table.parts[0][0].pieces[0] ^ flipColor;
+                leadPawns = position.getPieces(pawn >>> 3, BitboardPosition.PAWN);
+                for (long b = leadPawns; b != 0; b &= b - 1) {
+                    squares[size++] = Long.numberOfTrailingZeros(b) ^ flipSquares;
+                }
+                leadPawnCount = size;
+                int lead = 0;
+                for (int i = 1; i < leadPawnCount; i++) {
+                    if (MAP_PAWNS[squares[i]] > MAP_PAWNS[squares[lead]]) lead = i;
+                }
+                swap(0, lead);
+                file = Math.min(squares[0] & 7, 7 - (squares[0] & 7));
+            }
+            if (table.dtz && (table.part(0, file).flags & FLAG_STM) != stm
+                    && !(table.key == table.key2 && !table.hasPawns)) {
+                state = CHANGE_STM;
+                return 0;
+            }
+
+            for (long b = position.getOccupied() & ~leadPawns; b != 0; b &= b - 1) {
+                int sq = Long.numberOfTrailingZeros(b);
+                int piece = position.pieceAt(sq);
+                squares[size] = sq ^ flipSquares;
+                pieces[size++] = (((piece / 6) << 3) | (piece % 6 + 1)) ^ flipColor;
+            }
+            Part part = table.part(stm, file);
+
+            // Put the pieces in the table's order
+            for (int i = leadPawnCount; i < size - 1; i++) {
+                for (int j = i + 1; j < size; j++) {
+                    if (part.pieces[i] == pieces[j]) {
+                        swap(i, j);
+                        break;
+                    }
+                }
+            }
+
+            // Mirror so the leading piece is on files a-d; without pawns also on ranks 1-4 and
+            // below the a1-h8 diagonal
+            if ((squares[0] & 7) > 3) {
+                for (int i = 0; i < size; i++) {
+                    squares[i] ^= 7;
+                }
+            }
+            long idx;
+            if (table.hasPawns) {
+                idx = LEAD_PAWN_IDX[leadPawnCount][squares[0]];
+                sortByMapPawns(1, leadPawnCount);
+                for (int i = 1; i < leadPawnCount; i++) {
+                    idx += BINOMIAL[i][MAP_PAWNS[squares[i]]];
+                }
+            } else {
+                if ((squares[0] >>> 3) > 3) {
+                    for (int i = 0; i < size; i++) {
+                        squares[i] ^= 56;
+                    }
+                }
+                for (int i = 0; i < part.groupLen[0]; i++) {
+                    if (offA1H8(squares[i]) == 0) continue;
+                    if (offA1H8(squares[i]) > 0) {
+                        for (int j = i; j < size; j++) {
+                            squares[j] = ((squares[j] >>> 3) | (squares[j] << 3)) & 63;
+                        }
+                    }
+                    break;
+                }
+                idx = table.hasUniquePieces ? uniquePiecesIndex() : MAP_KK[MAP_A1D1D4[squares[0]]][squares[1]];
+            }
+
+            // The other groups, each as a combination of the squares the earlier groups left free
+            idx *= part.groupIdx[0];
+            int groupStart = part.groupLen[0];
+            boolean remainingPawns = table.hasPawns && table.pawnCount[1] > 0;
+            for (int next = 1; part.groupLen[next] != 0; next++) {
+                int len = part.groupLen[next];
+                sort(groupStart, groupStart + len);
+                long n = 0;
+                for (int i = 0; i < len; i++) {
+                    int sq = squares[groupStart + i];
+                    int adjust = 0;
+                    for (int j = 0; j < groupStart; j++) {
+                        if (sq > squares[j]) adjust++;
+                    }
+                    n += BINOMIAL[i + 1][sq - adjust - (remainingPawns ? 8 : 0)];
+                }
+                remainingPawns = false;
+                idx += n * part.groupIdx[next];
+                groupStart += len;
+            }
+
+            int value = decompress(part, table.buffer, idx);
+            return table.dtz ? mapDtz(table, part, value, wdl) : value - 2;
+        }
+
+        // The first three pieces with the first in the a1-d1-d4 triangle: 31332 codes
+        private long uniquePiecesIndex() {
+            int s0 = squares[0];
+            int s1 = squares[1];
+            int s2 = squares[2];
+            int adjust1 = (s1 > s0) ? 1 : 0;
+            int adjust2 = ((s2 > s0) ? 1 : 0) + ((s2 > s1) ? 1 : 0);
+            if (offA1H8(s0) != 0) {
+                return (MAP_A1D1D4[s0] * 63L + (s1 - adjust1)) * 62 + s2 - adjust2;
+            }
+            if (offA1H8(s1) != 0) {
+                return (6 * 63 + (s0 >>> 3) * 28 + MAP_B1H1H7[s1]) * 62L + s2 - adjust2;
+            }
+            if (offA1H8(s2) != 0) {
+                return 6 * 63 * 62 + 4 * 28 * 62 + (s0 >>> 3) * 7 * 28 + ((s1 >>> 3) - adjust1) * 28 + MAP_B1H1H7[s2];
+            }
+            return 6 * 63 * 62 + 4 * 28 * 62 + 4 * 7 * 28 + (s0 >>> 3) * 7 * 6 + ((s1 >>> 3) - adjust1) * 6
+                    + (s2 >>> 3) - adjust2;
+        }
+
+        // DTZ values are stored in moves or plies, possibly through a per-file map
+        private int mapDtz(Table table, Part part, int value, int wdl) {
+            if ((part.flags & FLAG_MAPPED) != 0) {
+                int i = part.mapIdx[WDL_MAP[wdl + 2]] + value;
+                value = ((part.flags & FLAG_WIDE) != 0)
+                        ? table.buffer.getShort(table.map + 2 * i) & 0xFFFF
+                        : table.buffer.get(table.map + i) & 0xFF;
+            }
+            if ((wdl == WIN && (part.flags & FLAG_WIN_PLIES) == 0) || (wdl == LOSS && (part.flags & FLAG_LOSS_PLIES) == 0)
+                    || wdl == CURSED_WIN || wdl == BLESSED_LOSS) {
+                value *= 2;
+            }
+            return value + 1;
+        }
+
+        private void swap(int i, int j) {
+            int square = squares[i];
+            squares[i] = squares[j];
+            squares[j] = square;
+            int piece = pieces[i];
+            pieces[i] = pieces[j];
+            pieces[j] = piece;
+        }
+
+        // Insertion sorts of squares[from, to), the groups being a few squares at most
+        private void sort(int from, int to) {
+            for (int i = from + 1; i < to; i++) {
+                int sq = squares[i];
+                int j = i;
+                for (; j > from && squares[j - 1] > sq; j--) {
+                    squares[j] = squares[j - 1];
+                }
+                squares[j] = sq;
+            }
+        }
+
+        private void sortByMapPawns(int from, int to) {
+            for (int i = from + 1; i < to; i++) {
+                int sq = squares[i];
+                int j = i;
+                for (; j > from && MAP_PAWNS[squares[j - 1]] > MAP_PAWNS[sq]; j--) {
+                    squares[j] = squares[j - 1];
+                }
+                squares[j] = sq;
+            }
+        }
+    }
+}
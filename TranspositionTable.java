@@ -0,0 +1,128 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size transposition table in primitive arrays, keyed by Zobrist hash. Each entry holds
+ * the search result (best move, depth, bound, score); network scores are cached in EvalCache.
+ *
+ * Search data is packed into one long: move (bits 0-15), depth (16-23), bound (24-25),
+ * generation (26-31) and score (32-63). The stored key is xor-ed with it, so a torn entry
+ * never matches its key. Replacement prefers deeper results and entries from the current search.
+ */
+public class TranspositionTable {
+    public static final int BOUND_NONE = 0;
+    public static final int BOUND_UPPER = 1;
+    public static final int BOUND_LOWER = 2;
+    public static final int BOUND_EXACT = 3;
+
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+    private static final int OCCUPANCY_SAMPLE = 1000;
+
+    private static TranspositionTable shared;
+
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+    private int generation;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    // Uses the largest power-of-two entry count that fits in megabytes
+    public TranspositionTable(int megabytes) {
+        long budget = Math.max(1, megabytes) * 1024L * 1024L / ENTRY_BYTES;
+        int entries = Integer.highestOneBit((int) Math.min(budget, 1 << 30));
+        keys = new long[entries];
+        data = new long[entries];
+        mask = entries - 1;
+    }
+
+    // Table shared by the searches, sized by -Dchess.hash (megabytes, default 64)
+    public static synchronized TranspositionTable getShared() {
+        if (shared == null) {
+            shared = new TranspositionTable(Integer.getInteger("chess.hash", 64));
+        }
+        return shared;
+    }
+
+    // Marks the start of a new search so older entries are replaced first
+    public void newSearch() {
+        generation = (generation + 1) & 63;
+    }
+
+    // Returns the packed search data for key, or 0 (BOUND_NONE) on a miss
+    public long probe(long key) {
+        probes.increment();
+        int i = (int) key & mask;
+        long d = data[i];
+        if ((keys[i] ^ d) != key || bound(d) == BOUND_NONE) return 0;
+        hits.increment();
+        return d;
+    }
+
+    public void store(long key, int move, int depth, int bound, int score) {
+        int i = (int) key & mask;
+        long d = data[i];
+        boolean sameKey = (keys[i] ^ d) == key;
+        if (!sameKey) {
+            boolean stale = generation(d) != generation || bound(d) == BOUND_NONE;
+            if (!stale && depth < depth(d)) return;
+        } else if (move == 0) {
+            move = move(d); // keep the known best move when a bound without one comes in
+        }
+        long packed = (move & 0xFFFFL)
+                | ((long) (depth & 0xFF) << 16)
+                | ((long) (bound & 3) << 24)
+                | ((long) generation << 26)
+                | ((long) score << 32);
+        data[i] = packed;
+        keys[i] = key ^ packed;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+        probes.reset();
+        hits.reset();
+    }
+
+    public static int move(long packed) {
+        return (int) packed & 0xFFFF;
+    }
+
+    public static int depth(long packed) {
+        return (int) (packed >>> 16) & 0xFF;
+    }
+
+    public static int bound(long packed) {
+        return (int) (packed >>> 24) & 3;
+    }
+
+    public static int score(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    private static int generation(long packed) {
+        return (int) (packed >>> 26) & 63;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public double getHitRate() {
+        long n = probes.sum();
+        return n == 0 ? 0 : (double) hits.sum() / n;
+    }
+
+    // Fraction of a sample of slots holding data from the current search
+    public double getOccupancy() {
+        int sample = Math.min(OCCUPANCY_SAMPLE, keys.length);
+        int used = 0;
+        for (int i = 0; i < sample; i++) {
+            long d = data[i];
+            if (bound(d) != BOUND_NONE && generation(d) == generation) used++;
+        }
+        return (double) used / sample;
+    }
+}
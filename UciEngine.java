@@ -0,0 +1,374 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import ai.onnxruntime.OrtException;
+import chesspresso.Chess;
+import chesspresso.move.Move;
+import chesspresso.position.Position;
+
+/**
+ * Headless UCI front-end, for GUIs and match runners such as cutechess-cli or fastchess.
+ * Searches with ParallelSearch; with the UseModel option the move is instead the one
+ * MoveScorer's ONNX evaluation likes best, as suggested by the Board overlay.
+ *
+ * Supported: uci, isready, setoption (Hash, Threads, SMP, UseModel), ucinewgame,
+ * position [startpos | fen ...] [moves ...], go [depth | nodes | movetime | wtime btime winc
+ * binc movestogo | infinite], stop, quit, d to print the current FEN and metrics to print
+ * Metrics.snapshot().
+ *
+ * Usage: java UciEngine
+ */
+public class UciEngine {
+    private static final String NAME = "4800-ChessGameML";
+
+    private final PrintStream out;
+    private final Object lock = new Object();
+
+    private int threads = Integer.getInteger("chess.threads", Runtime.getRuntime().availableProcessors());
+    private int hashMegabytes = Integer.getInteger("chess.hash", 64);
+    private ParallelSearch.Mode mode = "lazy".equals(System.getProperty("chess.smp"))
+            ? ParallelSearch.Mode.LAZY_SMP : ParallelSearch.Mode.ROOT_SPLIT;
+    private boolean useModel;
+
+    private ParallelSearch search;
+    private MoveScorer scorer;
+    private BitboardPosition position = new BitboardPosition();
+
+    // The running "go", and whether "stop" has arrived for it (an infinite search waits for it)
+    private Thread searchThread;
+    private boolean stopReceived;
+
+    public UciEngine(PrintStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        UciEngine engine = new UciEngine(System.out);
+        engine.run(new BufferedReader(new InputStreamReader(System.in)));
+        System.exit(0);
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            try {
+                if (!handle(line)) break;
+            } catch (RuntimeException e) {
+                // One malformed line must not end the engine under a GUI or tournament manager
+                Log.error("Cannot handle " + line, e);
+                send("info string cannot handle " + line);
+            }
+        }
+        stopSearch();
+        if (search != null) search.shutdown();
+        if (scorer != null) scorer.close();
+    }
+
+    // Runs one command; returns false on quit
+    public boolean handle(String line) {
+        String[] tokens = line.split("\\s+");
+        switch (tokens[0]) {
+            case "uci":
+                send("id name " + NAME);
+                send("id author 4800-ChessGameML");
+                send("option name Hash type spin default " + hashMegabytes + " min 1 max 4096");
+                send("option name Threads type spin default " + threads + " min 1 max 256");
+                send("option name SMP type combo default " + (mode == ParallelSearch.Mode.LAZY_SMP ? "lazy" : "root")
+                        + " var root var lazy");
+                send("option name UseModel type check default false");
+                send("uciok");
+                break;
+            case "isready":
+                send("readyok");
+                break;
+            case "setoption":
+                awaitSearch();
+                setOption(tokens);
+                break;
+            case "ucinewgame":
+                awaitSearch();
+                if (search != null) search.clearTables();
+                break;
+            case "position":
+                awaitSearch();
+                setPosition(tokens);
+                break;
+            case "go":
+                awaitSearch();
+                go(tokens);
+                break;
+            case "stop":
+                stopSearch();
+                break;
+            case "ponderhit":
+                break;
+            case "d":
+                send("info string " + position.getFEN());
+                send("info string " + EvalCache.getShared());
+                if ("batched".equals(AlphaBetaSearch.leafEvaluation())) {
+                    send("info string " + LeafBatcher.getShared());
+                }
+                if (Tablebase.getShared() != null) send("info string " + Tablebase.getShared());
+                break;
+            case "metrics":
+                for (String metricsLine : Metrics.snapshot().split("\n")) {
+                    send("info string " + metricsLine);
+                }
+                break;
+            case "quit":
+                return false;
+            default:
+                send("info string unknown command " + tokens[0]);
+        }
+        return true;
+    }
+
+    private void setOption(String[] tokens) {
+        // setoption name <name...> value <value...>
+        int valueAt = Arrays.asList(tokens).indexOf("value");
+        if (tokens.length < 3 || !tokens[1].equals("name") || valueAt == 2) {
+            send("info string expected setoption name <name> [value <value>]");
+            return;
+        }
+        String name = String.join(" ", Arrays.copyOfRange(tokens, 2, valueAt < 0 ? tokens.length : valueAt));
+        String value = (valueAt < 0) ? "" : String.join(" ", Arrays.copyOfRange(tokens, valueAt + 1, tokens.length));
+        try {
+            if (name.equalsIgnoreCase("Hash")) {
+                hashMegabytes = Math.max(1, Integer.parseInt(value));
+            } else if (name.equalsIgnoreCase("Threads")) {
+                threads = Math.max(1, Integer.parseInt(value));
+            } else if (name.equalsIgnoreCase("SMP")) {
+                mode = value.equalsIgnoreCase("lazy") ? ParallelSearch.Mode.LAZY_SMP : ParallelSearch.Mode.ROOT_SPLIT;
+            } else if (name.equalsIgnoreCase("UseModel")) {
+                useModel = Boolean.parseBoolean(value);
+                return;
+            } else {
+                send("info string unknown option " + name);
+                return;
+            }
+        } catch (NumberFormatException e) {
+            send("info string bad value for " + name + ": " + value);
+            return;
+        }
+        // Rebuilt with the new size or thread count at the next go
+        if (search != null) search.shutdown();
+        search = null;
+    }
+
+    private void setPosition(String[] tokens) {
+        int movesAt = Arrays.asList(tokens).indexOf("moves");
+        int fenEnd = (movesAt < 0) ? tokens.length : movesAt;
+        BitboardPosition next;
+        if (tokens.length > 1 && tokens[1].equals("fen")) {
+            String fen = String.join(" ", Arrays.copyOfRange(tokens, 2, fenEnd));
+            try {
+                next = new BitboardPosition(fen);
+            } catch (RuntimeException e) {
+                send("info string bad fen " + fen);
+                return;
+            }
+            if (!isSearchable(next)) {
+                send("info string illegal position " + fen);
+                return;
+            }
+        } else {
+            next = new BitboardPosition();
+        }
+        if (movesAt >= 0) {
+            for (int i = movesAt + 1; i < tokens.length; i++) {
+                int move = next.parseUci(tokens[i]);
+                if (move == BitboardPosition.NO_MOVE) {
+                    send("info string illegal move " + tokens[i]);
+                    break;
+                }
+                next.makeMove(move);
+            }
+        }
+        position = next;
+    }
+
+    // One king per side, and the side not to move not in check: the search would take a king otherwise
+    private static boolean isSearchable(BitboardPosition position) {
+        int side = position.getSideToMove();
+        return Long.bitCount(position.getPieces(BitboardPosition.WHITE, BitboardPosition.KING)) == 1
+                && Long.bitCount(position.getPieces(BitboardPosition.BLACK, BitboardPosition.KING)) == 1
+                && !position.isAttacked(position.kingSquare(side ^ 1), side);
+    }
+
+    private void go(String[] tokens) {
+        final SearchLimits limits = new SearchLimits();
+        for (int i = 1; i < tokens.length; i++) {
+            String name = tokens[i];
+            switch (name) {
+                case "infinite": limits.infinite = true; continue;
+                case "depth": case "nodes": case "movetime": case "wtime": case "btime": case "winc": case "binc":
+                case "movestogo": break;
+                default: continue; // ponder, searchmoves and mate are not supported
+            }
+            // A parameter without a number is ignored, and the token after it read as the next one
+            long value;
+            try {
+                if (i + 1 == tokens.length) throw new NumberFormatException("no value");
+                value = Long.parseLong(tokens[i + 1]);
+            } catch (NumberFormatException e) {
+                send("info string bad value for " + name + ", ignored");
+                continue;
+            }
+            i++;
+            switch (name) {
+                case "depth": limits.depth = (int) Math.max(1, Math.min(SearchLimits.MAX_DEPTH, value)); break;
+                case "nodes": limits.nodes = value; break;
+                case "movetime": limits.moveTimeMillis = value; break;
+                case "wtime": limits.whiteTimeMillis = value; break;
+                case "btime": limits.blackTimeMillis = value; break;
+                case "winc": limits.whiteIncrementMillis = value; break;
+                case "binc": limits.blackIncrementMillis = value; break;
+                default: limits.movesToGo = (int) Math.max(0, Math.min(Integer.MAX_VALUE, value)); break;
+            }
+        }
+
+        final BitboardPosition root = new BitboardPosition(position);
+        final ParallelSearch engine = getSearch();
+        synchronized (lock) {
+            stopReceived = false;
+        }
+        searchThread = new Thread(() -> {
+            int[] moves = new int[BitboardPosition.MAX_MOVES];
+            int count = root.generateLegalMoves(moves, 0);
+            int best;
+            try {
+                best = bookMove(root);
+                if (best == BitboardPosition.NO_MOVE && useModel) best = modelMove(root);
+                if (best == BitboardPosition.NO_MOVE) best = engine.search(root, limits, Arrays.copyOf(moves, count));
+            } catch (RuntimeException e) {
+                // A GUI waits for bestmove forever, so one is always sent
+                Log.error("Search failed in " + root.getFEN(), e);
+                best = (count > 0) ? moves[0] : BitboardPosition.NO_MOVE;
+            }
+            // UCI forbids answering an infinite search before stop
+            synchronized (lock) {
+                while (limits.infinite && !stopReceived) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            send("bestmove " + (best == BitboardPosition.NO_MOVE ? "0000" : BitboardPosition.toUci(best)));
+        }, "uci-search");
+        searchThread.start();
+    }
+
+    private ParallelSearch getSearch() {
+        if (search == null) {
+            // ROOT_SPLIT on several threads splits the hash between private tables instead
+            TranspositionTable table = ParallelSearch.usesSharedTable(threads, mode)
+                    ? new TranspositionTable(hashMegabytes) : null;
+            search = new ParallelSearch(threads, mode, table, hashMegabytes);
+            search.setListener(this::sendInfo);
+        }
+        return search;
+    }
+
+    private void sendInfo(SearchInfo info) {
+        String score = info.isMate() ? "mate " + info.getMateIn() : "cp " + info.score;
+        send("info depth " + info.depth + " score " + score + " nodes " + info.nodes + " nps "
+                + info.getNodesPerSecond() + " time " + info.timeMillis + " hashfull "
+                + Math.round(search.getTable().getOccupancy() * 1000) + " tbhits " + search.getTablebaseHitCount()
+                + " pv " + BitboardPosition.toUci(info.bestMove));
+    }
+
+    // A move from the -Dchess.book opening book, or NO_MOVE
+    private int bookMove(BitboardPosition root) {
+        OpeningBook book = OpeningBook.getShared();
+        int move = (book != null) ? book.pick(root) : BitboardPosition.NO_MOVE;
+        if (move != BitboardPosition.NO_MOVE) send("info string book move " + BitboardPosition.toUci(move));
+        return move;
+    }
+
+    // One-ply choice by the ONNX model, or NO_MOVE if the model cannot be used
+    private int modelMove(BitboardPosition root) {
+        long start = System.nanoTime();
+        try {
+            if (scorer == null) scorer = new MoveScorer(EvaluatorService.getShared());
+            Position chessPosition = new Position(root.getFEN());
+            boolean white = root.getSideToMove() == BitboardPosition.WHITE;
+            MoveScorer.ScoredMove best = null;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            int evaluated = 0;
+            for (int sqi = 0; sqi < 64; sqi++) {
+                if (root.pieceAt(sqi) == BitboardPosition.NO_PIECE || root.pieceAt(sqi) / 6 != root.getSideToMove()) {
+                    continue;
+                }
+                List<MoveScorer.ScoredMove> scored = scorer.scoreMoves(chessPosition, sqi);
+                evaluated += scored.size();
+                for (MoveScorer.ScoredMove candidate : scored) {
+                    // The model scores from White's side, in pawns
+                    float score = white ? candidate.score : -candidate.score;
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = candidate;
+                    }
+                }
+            }
+            if (best == null) return BitboardPosition.NO_MOVE;
+
+            String uci = BitboardPosition.squareName(Move.getFromSqi(best.move))
+                    + BitboardPosition.squareName(Move.getToSqi(best.move));
+            if (Move.isPromotion(best.move)) {
+                uci += Character.toLowerCase(Chess.pieceToChar(Move.getPromotionPiece(best.move)));
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            send("info depth 1 score cp " + Math.round(bestScore * 100) + " nodes " + evaluated + " nps "
+                    + (evaluated * 1000 / Math.max(1, millis)) + " time " + millis + " pv " + uci);
+            return root.parseUci(uci);
+        } catch (OrtException | RuntimeException e) {
+            send("info string model unavailable, searching instead: " + e.getMessage());
+            return BitboardPosition.NO_MOVE;
+        }
+    }
+
+    // Commands other than stop and quit are held back until the running go has sent its bestmove
+    private void awaitSearch() {
+        if (searchThread == null) return;
+        try {
+            searchThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searchThread = null;
+    }
+
+    // Stops the running go and waits for its bestmove
+    private void stopSearch() {
+        if (searchThread == null) return;
+        synchronized (lock) {
+            stopReceived = true;
+            lock.notifyAll();
+        }
+        try {
+            // Repeated because a stop that lands before the search has started is reset by it
+            while (searchThread.isAlive()) {
+                if (search != null) search.stop();
+                searchThread.join(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searchThread = null;
+    }
+
+    private void send(String line) {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * jdk.incubator.vector kernels for IncrementalEvaluator. Only loaded when the JVM runs with
+ * --add-modules jdk.incubator.vector (IncrementalEvaluator.isVectorAvailable); otherwise the
+ * scalar loops are used. Widths must be multiples of the vector length.
+ * Fused multiply-adds round once instead of twice, so results differ from the scalar loops and
+ * ONNX Runtime only in the last bits.
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private VectorKernels() {
+    }
+
+    // out[offset + j] += sum over r < count of values[r] * weights[rows[r] * width + j], for j < width.
+    // Each slice of out stays in a register while all rows are added, four rows at a time.
+    static void accumulateRows(float[] out, int offset, int width, float[] weights, int[] rows, float[] values,
+            int count) {
+        for (int j = 0; j < width; j += SPECIES.length()) {
+            FloatVector sum = FloatVector.fromArray(SPECIES, out, offset + j);
+            int r = 0;
+            for (; r + 3 < count; r += 4) {
+                sum = row(weights, rows[r] * width + j).fma(FloatVector.broadcast(SPECIES, values[r]), sum);
+                sum = row(weights, rows[r + 1] * width + j).fma(FloatVector.broadcast(SPECIES, values[r + 1]), sum);
+                sum = row(weights, rows[r + 2] * width + j).fma(FloatVector.broadcast(SPECIES, values[r + 2]), sum);
+                sum = row(weights, rows[r + 3] * width + j).fma(FloatVector.broadcast(SPECIES, values[r + 3]), sum);
+            }
+            for (; r < count; r++) {
+                sum = row(weights, rows[r] * width + j).fma(FloatVector.broadcast(SPECIES, values[r]), sum);
+            }
+            sum.intoArray(out, offset + j);
+        }
+    }
+
+    private static FloatVector row(float[] weights, int index) {
+        return FloatVector.fromArray(SPECIES, weights, index);
+    }
+}
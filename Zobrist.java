@@ -0,0 +1,65 @@
+import java.util.SplittableRandom;
+
+import chesspresso.Chess;
+import chesspresso.position.ImmutablePosition;
+import chesspresso.position.Position;
+
+/**
+ * 64-bit Zobrist keys for positions. Pieces are numbered in BoardEncoder plane order
+ * (PNBRQKpnbrqk) and squares as chesspresso sqi (a1 = 0). The tables come from a fixed seed, so
+ * keys are stable between runs and equal positions hash equally in every caller.
+ * Castling rights use BitboardPosition's bits, and an en passant square only counts when a pawn
+ * can actually capture there, so BitboardPosition.getKey() matches hash() for the same position.
+ */
+public final class Zobrist {
+    public static final long[][] PIECE_SQUARE = new long[12][64];
+    public static final long[] CASTLING = new long[16];
+    public static final long[] EN_PASSANT_FILE = new long[8];
+    public static final long BLACK_TO_MOVE;
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EEDC0FFEEL);
+        for (long[] squares : PIECE_SQUARE) {
+            for (int sqi = 0; sqi < 64; sqi++) squares[sqi] = random.nextLong();
+        }
+        for (int i = 0; i < CASTLING.length; i++) CASTLING[i] = random.nextLong();
+        for (int i = 0; i < EN_PASSANT_FILE.length; i++) EN_PASSANT_FILE[i] = random.nextLong();
+        BLACK_TO_MOVE = random.nextLong();
+    }
+
+    private Zobrist() {
+    }
+
+    public static long hash(Position position) {
+        long key = 0;
+        for (int sqi = 0; sqi < 64; sqi++) {
+            int plane = BoardEncoder.plane(position.getStone(sqi));
+            if (plane >= 0) key ^= PIECE_SQUARE[plane][sqi];
+        }
+        key ^= CASTLING[castling(position.getCastles())];
+
+        int ep = position.getSqiEP();
+        if (ep != Chess.NO_SQUARE) {
+            int mover = (position.getToPlay() == Chess.WHITE) ? BitboardPosition.WHITE : BitboardPosition.BLACK;
+            for (long from = BitboardPosition.pawnAttacks(mover ^ 1, ep); from != 0; from &= from - 1) {
+                int stone = position.getStone(Long.numberOfTrailingZeros(from));
+                if (BoardEncoder.plane(stone) == mover * 6 + BitboardPosition.PAWN) {
+                    key ^= EN_PASSANT_FILE[ep & 7];
+                    break;
+                }
+            }
+        }
+        if (position.getToPlay() == Chess.BLACK) key ^= BLACK_TO_MOVE;
+        return key;
+    }
+
+    // chesspresso castling flags to BitboardPosition castling rights
+    private static int castling(int castles) {
+        int rights = 0;
+        if ((castles & ImmutablePosition.WHITE_SHORT_CASTLE) != 0) rights |= BitboardPosition.WHITE_SHORT;
+        if ((castles & ImmutablePosition.WHITE_LONG_CASTLE) != 0) rights |= BitboardPosition.WHITE_LONG;
+        if ((castles & ImmutablePosition.BLACK_SHORT_CASTLE) != 0) rights |= BitboardPosition.BLACK_SHORT;
+        if ((castles & ImmutablePosition.BLACK_LONG_CASTLE) != 0) rights |= BitboardPosition.BLACK_LONG;
+        return rights;
+    }
+}
@@ -0,0 +1,113 @@
+import java.nio.FloatBuffer;
+
+import chesspresso.position.Position;
+
+/**
+ * Implements bench.Engine over the engine classes, which live in the default package.
+ */
+public class EngineBridge implements bench.Engine {
+    private static final int MAX_BATCH = 64;
+
+    private final FloatBuffer planes = BoardEncoder.allocate(MAX_BATCH);
+    private final AlphaBetaSearch search = new AlphaBetaSearch(new TranspositionTable(16));
+    private Evaluator evaluator;
+    private MoveScorer scorer;
+    private IncrementalEvaluator.Accumulator network;
+    private Object networkRoot;
+    private final int[] moves = new int[BitboardPosition.MAX_MOVES];
+
+    @Override
+    public Object parseFen(String fen) {
+        return new Position(fen);
+    }
+
+    @Override
+    public Object parseBitboard(String fen) {
+        return new BitboardPosition(fen);
+    }
+
+    @Override
+    public void encode(Object position, int slot) {
+        BoardEncoder.encode((Position) position, planes, slot);
+    }
+
+    @Override
+    public void encodeBitboard(Object bitboardPosition, int slot) {
+        BoardEncoder.encode(((BitboardPosition) bitboardPosition).getBitboards(), planes, slot);
+    }
+
+    @Override
+    public void openModel(String modelPath, int batchSize) throws Exception {
+        if (batchSize > MAX_BATCH) throw new IllegalArgumentException("Batch larger than " + MAX_BATCH);
+        evaluator = new Evaluator(modelPath);
+        scorer = new MoveScorer(modelPath);
+    }
+
+    @Override
+    public float evaluate(Object position) throws Exception {
+        return evaluator.evaluate((Position) position);
+    }
+
+    @Override
+    public float[] evaluateBatch(int n) throws Exception {
+        return evaluator.evaluateBatch(planes, n);
+    }
+
+    @Override
+    public Object findBestMove(Object position, int fromSqi) throws Exception {
+        return scorer.findBestMove((Position) position, fromSqi);
+    }
+
+    @Override
+    public void clearEvalCache() {
+        scorer.getService().getCache().clear();
+    }
+
+    @Override
+    public long search(Object bitboardPosition, int depth) {
+        search.getTable().clear();
+        search.search((BitboardPosition) bitboardPosition, depth);
+        return search.getNodeCount();
+    }
+
+    @Override
+    public void openNetwork(String modelPath, boolean vector) throws Exception {
+        network = new IncrementalEvaluator(ModelWeights.load(modelPath), vector).newAccumulator();
+    }
+
+    @Override
+    public int legalMoveCount(Object bitboardPosition) {
+        return ((BitboardPosition) bitboardPosition).generateLegalMoves(moves, 0);
+    }
+
+    @Override
+    public float evaluateNetworkIncremental(Object bitboardPosition, int moveIndex) {
+        BitboardPosition position = (BitboardPosition) bitboardPosition;
+        if (networkRoot != bitboardPosition) {
+            network.reset(position);
+            position.generateLegalMoves(moves, 0);
+            networkRoot = bitboardPosition;
+        }
+        network.push(position, moves[moveIndex]);
+        float score = network.evaluate();
+        network.pop();
+        return score;
+    }
+
+    @Override
+    public float evaluateNetworkFull(Object bitboardPosition) {
+        networkRoot = null;
+        return network.evaluate((BitboardPosition) bitboardPosition);
+    }
+
+    @Override
+    public float evaluateOnnx(Object bitboardPosition) throws Exception {
+        return evaluator.evaluate((BitboardPosition) bitboardPosition);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (evaluator != null) evaluator.close();
+        if (scorer != null) scorer.close();
+    }
+}
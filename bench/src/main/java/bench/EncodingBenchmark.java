@@ -0,0 +1,69 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FEN parsing into chesspresso and BitboardPosition, and encoding either into the model's
+ * [12,8,8] input planes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodingBenchmark {
+    @Param({ "opening", "middlegame", "endgame" })
+    public String phase;
+
+    private Engine engine;
+    private String fen;
+    private Object position;
+    private Object bitboardPosition;
+
+    @Setup
+    public void setUp() {
+        engine = Engine.create();
+        fen = Positions.fen(phase);
+        position = engine.parseFen(fen);
+        bitboardPosition = engine.parseBitboard(fen);
+    }
+
+    @Benchmark
+    public Object parseFen() {
+        return engine.parseFen(fen);
+    }
+
+    @Benchmark
+    public Object parseBitboard() {
+        return engine.parseBitboard(fen);
+    }
+
+    @Benchmark
+    public void encode() {
+        engine.encode(position, 0);
+    }
+
+    @Benchmark
+    public void encodeBitboard() {
+        engine.encodeBitboard(bitboardPosition, 0);
+    }
+
+    // The path Evaluator.evaluateFEN takes before inference
+    @Benchmark
+    public void parseAndEncode() {
+        engine.encode(engine.parseFen(fen), 0);
+    }
+}
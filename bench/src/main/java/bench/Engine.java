@@ -0,0 +1,58 @@
+package bench;
+
+/**
+ * The engine operations the benchmarks measure. JMH refuses benchmark classes in the default
+ * package and named packages cannot import from it, so the engine is reached through this
+ * interface, implemented by EngineBridge next to the engine classes.
+ */
+public interface Engine {
+    static Engine create() {
+        try {
+            return (Engine) Class.forName("EngineBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("EngineBridge is missing from the classpath", e);
+        }
+    }
+
+    // chesspresso Position
+    Object parseFen(String fen);
+
+    // BitboardPosition
+    Object parseBitboard(String fen);
+
+    // Encodes into slot of the batch buffer
+    void encode(Object position, int slot);
+
+    void encodeBitboard(Object bitboardPosition, int slot);
+
+    void openModel(String modelPath, int batchSize) throws Exception;
+
+    float evaluate(Object position) throws Exception;
+
+    // One session.run over the first n slots of the batch buffer
+    float[] evaluateBatch(int n) throws Exception;
+
+    // Per-click move choice of the Board overlay, for the piece on fromSqi
+    Object findBestMove(Object position, int fromSqi) throws Exception;
+
+    void clearEvalCache();
+
+    // Fixed-depth alpha-beta search; returns the node count
+    long search(Object bitboardPosition, int depth);
+
+    // Loads the model weights into the Java IncrementalEvaluator, on the Vector API kernels or the scalar loops
+    void openNetwork(String modelPath, boolean vector) throws Exception;
+
+    int legalMoveCount(Object bitboardPosition);
+
+    // First-layer update for the legal move with this index, the remaining layers, and the undo
+    float evaluateNetworkIncremental(Object bitboardPosition, int moveIndex);
+
+    // All layers, the first one included
+    float evaluateNetworkFull(Object bitboardPosition);
+
+    // ONNX Runtime on one encoded position
+    float evaluateOnnx(Object bitboardPosition) throws Exception;
+
+    void close() throws Exception;
+}
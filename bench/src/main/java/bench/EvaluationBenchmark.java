@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of evaluating one search node: the incremental Java network (first-layer update for a
+ * move, remaining layers, undo), the Java network from scratch, and ONNX Runtime. The Java
+ * network runs on the Vector API kernels or on the scalar loops.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class EvaluationBenchmark {
+    @Param({ "opening", "middlegame", "endgame" })
+    public String phase;
+
+    @Param({ "vector", "scalar" })
+    public String kernels;
+
+    private Engine engine;
+    private Object position;
+    private int moveCount;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        engine = Engine.create();
+        engine.openModel(Positions.modelPath(), 1);
+        engine.openNetwork(Positions.modelPath(), kernels.equals("vector"));
+        position = engine.parseBitboard(Positions.fen(phase));
+        moveCount = engine.legalMoveCount(position);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        engine.close();
+    }
+
+    // Cycles through the legal moves so every kind of update is measured
+    @Benchmark
+    public float incremental() {
+        next = (next + 1 == moveCount) ? 0 : next + 1;
+        return engine.evaluateNetworkIncremental(position, next);
+    }
+
+    @Benchmark
+    public float full() {
+        return engine.evaluateNetworkFull(position);
+    }
+
+    @Benchmark
+    public float onnxRuntime() throws Exception {
+        return engine.evaluateOnnx(position);
+    }
+}
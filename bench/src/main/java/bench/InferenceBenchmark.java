@@ -0,0 +1,67 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Scoring batch positions with one session.run each versus one session.run for all of them.
+ * Both benchmarks evaluate the same batch positions, so their times compare directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InferenceBenchmark {
+    @Param({ "1", "8", "28" })
+    public int batch;
+
+    private Engine engine;
+    private Object[] positions;
+
+    @Setup
+    public void setUp() throws Exception {
+        engine = Engine.create();
+        engine.openModel(Positions.modelPath(), batch);
+        String[] suite = { Positions.OPENING, Positions.MIDDLEGAME, Positions.ENDGAME };
+        positions = new Object[batch];
+        for (int i = 0; i < batch; i++) {
+            positions[i] = engine.parseFen(suite[i % suite.length]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        engine.close();
+    }
+
+    @Benchmark
+    public void single(Blackhole bh) throws Exception {
+        for (Object position : positions) {
+            bh.consume(engine.evaluate(position));
+        }
+    }
+
+    // Encoding is included, as in MoveScorer.scoreMoves
+    @Benchmark
+    public float[] batched() throws Exception {
+        for (int i = 0; i < batch; i++) {
+            engine.encode(positions[i], i);
+        }
+        return engine.evaluateBatch(batch);
+    }
+}
@@ -0,0 +1,67 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MoveScorer.findBestMove for one click on a piece, with the evaluation cache cleared before
+ * every call (first click on a position) and left warm (clicking the same piece again).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dchess.evalCache=4096") // keeps clearing the cache cheap
+@State(Scope.Thread)
+public class MoveScorerBenchmark {
+    @Param({ "opening", "middlegame", "endgame" })
+    public String phase;
+
+    private Engine engine;
+    private Object position;
+    private int fromSqi;
+
+    @Setup
+    public void setUp() throws Exception {
+        engine = Engine.create();
+        engine.openModel(Positions.modelPath(), 1);
+        position = engine.parseFen(Positions.fen(phase));
+        fromSqi = Positions.clickedSquare(phase);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        engine.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void clear(MoveScorerBenchmark benchmark) {
+            benchmark.engine.clearEvalCache();
+        }
+    }
+
+    @Benchmark
+    public Object findBestMoveCold(ColdCache cold) throws Exception {
+        return engine.findBestMove(position, fromSqi);
+    }
+
+    @Benchmark
+    public Object findBestMoveWarm() throws Exception {
+        return engine.findBestMove(position, fromSqi);
+    }
+}
@@ -0,0 +1,37 @@
+package bench;
+
+/**
+ * The fixed benchmark suite, one position per game phase, each with the square of the piece a
+ * user would click (a1 = 0). Kept stable so results stay comparable between releases.
+ */
+public final class Positions {
+    public static final String OPENING = "r1bqkb1r/pppp1ppp/2n2n2/1B2p3/4P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4";
+    public static final String MIDDLEGAME = "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10";
+    public static final String ENDGAME = "8/5pk1/6p1/8/3R4/6P1/5PK1/r7 w - - 0 40";
+
+    private Positions() {
+    }
+
+    public static String fen(String phase) {
+        switch (phase) {
+            case "opening": return OPENING;
+            case "middlegame": return MIDDLEGAME;
+            case "endgame": return ENDGAME;
+            default: throw new IllegalArgumentException("Unknown phase " + phase);
+        }
+    }
+
+    // Knight f3, queen e2, rook d4
+    public static int clickedSquare(String phase) {
+        switch (phase) {
+            case "opening": return 21;
+            case "middlegame": return 12;
+            case "endgame": return 27;
+            default: throw new IllegalArgumentException("Unknown phase " + phase);
+        }
+    }
+
+    public static String modelPath() {
+        return System.getProperty("chess.model", "ml_model/model.onnx");
+    }
+}
@@ -0,0 +1,83 @@
+import numpy as np
+import torch
+from torch.utils.data import BatchSampler, DataLoader, Dataset, RandomSampler, SequentialSampler
+
+# Reader for the packed dataset written by the Java converter:
+#
+#   java PackedDataset chess_data.csv chess_data.bin
+#
+# The file is memory-mapped, so opening it costs nothing and the OS page cache holds the data;
+# a batch is gathered with one fancy index into the map and its bitboards are expanded to
+# [n,12,8,8] planes with numpy, with no per-sample Python or FEN parsing. The planes match
+# encode_fen: plane order PNBRQKpnbrqk, row 0 is rank 8.
+
+MAGIC = b"CHESSPK1"
+VERSION = 1
+HEADER_BYTES = 16
+
+RECORD = np.dtype([
+    ("bitboards", "<u8", (12,)),
+    ("score", "<f4"),
+    ("side", "u1"),
+    ("pad", "u1", (3,)),
+])
+
+
+def expand_planes(bitboards):
+    # [n,12] uint64 -> [n,12,8,8] float32. Byte k of a little-endian bitboard is rank k + 1 with
+    # bit j on file j, so unpacking bits in little order gives [rank, file]; ranks are flipped so
+    # rank 8 comes first.
+    n = bitboards.shape[0]
+    bits = np.unpackbits(np.ascontiguousarray(bitboards, dtype="<u8").view(np.uint8), bitorder="little")
+    planes = bits.reshape(n, 12, 8, 8)[:, :, ::-1, :]
+    return planes.astype(np.float32)
+
+
+class PackedDataset(Dataset):
+    def __init__(self, path):
+        with open(path, "rb") as f:
+            header = f.read(HEADER_BYTES)
+        if len(header) < HEADER_BYTES or header[:8] != MAGIC:
+            raise ValueError(f"{path} is not a packed dataset")
+        version = int.from_bytes(header[8:12], "little")
+        record_bytes = int.from_bytes(header[12:16], "little")
+        if version != VERSION or record_bytes != RECORD.itemsize:
+            raise ValueError(f"{path}: unsupported version {version} or record size {record_bytes}")
+        self.records = np.memmap(path, dtype=RECORD, mode="r", offset=HEADER_BYTES)
+
+    def __len__(self):
+        return len(self.records)
+
+    def __getitem__(self, idx):
+        # idx may be one index or a list of them (see batch_loader); sorting the batch keeps the
+        # reads in file order
+        if np.isscalar(idx):
+            boards, scores = self._read(np.array([idx]))
+            return boards[0], scores[0]
+        return self._read(np.sort(np.asarray(idx)))
+
+    def _read(self, indices):
+        batch = self.records[indices]
+        boards = torch.from_numpy(expand_planes(batch["bitboards"]))
+        scores = torch.from_numpy(batch["score"].astype(np.float32)).unsqueeze(1)
+        return boards, scores
+
+
+def batch_loader(dataset, indices, batch_size, shuffle):
+    # Fetches whole batches with one __getitem__ call each, instead of batch_size calls
+    split = _Batches(dataset, indices)
+    sampler = RandomSampler(split) if shuffle else SequentialSampler(split)
+    return DataLoader(split, sampler=BatchSampler(sampler, batch_size, drop_last=False), batch_size=None)
+
+
+class _Batches(Dataset):
+    # Maps positions in a split to records, so batch_loader can hand over index lists
+    def __init__(self, dataset, indices):
+        self.dataset = dataset
+        self.indices = np.asarray(indices)
+
+    def __len__(self):
+        return len(self.indices)
+
+    def __getitem__(self, positions):
+        return self.dataset[self.indices[positions]]
@@ -0,0 +1,122 @@
+import os
+import sys
+import time
+
+import numpy as np
+import onnx
+import onnxruntime as ort
+import pandas as pd
+from onnx import version_converter
+from onnxruntime.quantization import (CalibrationDataReader, QuantFormat, QuantType,
+                                      quantize_dynamic, quantize_static)
+from sklearn.metrics import r2_score, mean_absolute_error
+from sklearn.model_selection import train_test_split
+
+from onnx_export import encode_fen
+
+# Produces model_int8.onnx from model.onnx and compares the two.
+#
+#   python quantize_model.py [chess_data.csv] [static|dynamic]
+#
+# Static quantization (the default) calibrates the activation ranges on positions from the
+# training split; weights are INT8 per output channel, activations UINT8, in the QDQ format that
+# both ONNX Runtime and the Java ModelWeights reader load. Dynamic quantization writes integer
+# operators (ConvInteger, MatMulInteger) that only ONNX Runtime runs. The report is printed and
+# written to quantization_report.md: MAE/R² of each model on the test split, drift of the INT8 outputs from
+# the float ones, and evaluations per second one position at a time and in batches of 64
+# (Evaluator.MAX_CACHED_BATCH).
+
+CALIBRATION_SIZE = 1000
+REPORT_SIZE = 5000
+
+
+def load_splits(csv_path):
+    # Same sample and split as train_model.train, so the report only sees test positions
+    full_df = pd.read_csv(csv_path, names=["fen", "score"], header=None)
+    df = full_df.sample(n=80000, random_state=42).reset_index(drop=True)
+    return train_test_split(df, test_size=0.2, random_state=42)
+
+
+class FenCalibrationReader(CalibrationDataReader):
+    # fens may also be boards already encoded as [n,12,8,8], as from packed_dataset
+    def __init__(self, fens, batch_size=32):
+        boards = fens if isinstance(fens, np.ndarray) else np.stack([encode_fen(fen) for fen in fens])
+        self.batches = iter([boards[i:i + batch_size] for i in range(0, len(boards), batch_size)])
+
+    def get_next(self):
+        batch = next(self.batches, None)
+        return None if batch is None else {"board": batch}
+
+
+def quantize(model_path, quantized_path, calibration_fens, mode="static"):
+    # Per-channel QDQ needs opset 13; the float model is exported with opset 11
+    model = onnx.load(model_path)
+    if model.opset_import[0].version < 13:
+        model = version_converter.convert_version(model, 13)
+    upgraded_path = quantized_path + ".opset13.onnx"
+    onnx.save(model, upgraded_path)
+    try:
+        if mode == "dynamic":
+            quantize_dynamic(upgraded_path, quantized_path, weight_type=QuantType.QInt8, per_channel=True)
+        else:
+            quantize_static(upgraded_path, quantized_path, FenCalibrationReader(calibration_fens),
+                            quant_format=QuantFormat.QDQ, activation_type=QuantType.QUInt8,
+                            weight_type=QuantType.QInt8, per_channel=True)
+    finally:
+        os.remove(upgraded_path)
+
+
+def measure(model_path, boards):
+    options = ort.SessionOptions()
+    options.intra_op_num_threads = 1
+    session = ort.InferenceSession(model_path, options, providers=["CPUExecutionProvider"])
+    preds = np.concatenate([session.run(None, {"board": boards[i:i + 256]})[0][:, 0]
+                            for i in range(0, len(boards), 256)])
+
+    def evals_per_second(batch_size, runs):
+        session.run(None, {"board": boards[:batch_size]})  # warm-up
+        start = time.perf_counter()
+        for i in range(runs):
+            offset = (i * batch_size) % (len(boards) - batch_size)
+            session.run(None, {"board": boards[offset:offset + batch_size]})
+        return runs * batch_size / (time.perf_counter() - start)
+
+    return preds, evals_per_second(1, 2000), evals_per_second(64, 200)
+
+
+def report(csv_path="chess_data.csv", model_path="model.onnx", quantized_path="model_int8.onnx",
+           report_path="quantization_report.md"):
+    _, test_df = load_splits(csv_path)
+    test_df = test_df.head(REPORT_SIZE)
+    boards = np.stack([encode_fen(fen) for fen in test_df["fen"]])
+    targets = test_df["score"].to_numpy(dtype=np.float32) / 100.0
+
+    float_preds, float_single, float_batched = measure(model_path, boards)
+    int8_preds, int8_single, int8_batched = measure(quantized_path, boards)
+    drift = np.abs(int8_preds - float_preds)
+
+    lines = [
+        f"Test positions: {len(boards)} (scores in pawns)",
+        "",
+        "| model | size (KB) | MAE | R² | drift MAE | drift max | evals/s (1) | evals/s (64) |",
+        "|---|---|---|---|---|---|---|---|",
+    ]
+    for name, path, preds, single, batched, row_drift in [
+            ("float32", model_path, float_preds, float_single, float_batched, None),
+            ("int8", quantized_path, int8_preds, int8_single, int8_batched, drift)]:
+        drift_cells = "- | -" if row_drift is None else f"{row_drift.mean():.4f} | {row_drift.max():.4f}"
+        lines.append(f"| {name} | {os.path.getsize(path) // 1024} | {mean_absolute_error(targets, preds):.4f}"
+                     f" | {r2_score(targets, preds):.4f} | {drift_cells} | {single:.0f} | {batched:.0f} |")
+    text = "\n".join(lines)
+    print(text)
+    with open(report_path, "w") as f:
+        f.write(text + "\n")
+
+
+if __name__ == "__main__":
+    csv_path = sys.argv[1] if len(sys.argv) > 1 else "chess_data.csv"
+    mode = sys.argv[2] if len(sys.argv) > 2 else "static"
+    train_df, _ = load_splits(csv_path)
+    calibration = train_df["fen"].sample(n=CALIBRATION_SIZE, random_state=0).tolist()
+    quantize("model.onnx", "model_int8.onnx", calibration, mode)
+    report(csv_path)
@@ -0,0 +1,335 @@
+import math
+import struct
+import sys
+
+# Writes model_int8.onnx like quantize_model.py's static mode, with the Python standard library
+# only, for machines without numpy, onnx and onnxruntime:
+#
+#   python quantize_nodeps.py positions.csv [model.onnx] [model_int8.onnx]
+#   python quantize_nodeps.py --report test.csv float.csv int8.csv float.summary int8.summary
+#
+# The graph gets the layout quantize_static produces for this model in the QDQ format: weights
+# INT8 per output channel, biases INT32, and UINT8 activations whose ranges come from a float
+# forward pass over the first CALIBRATION_SIZE FENs of positions.csv. As there, a Relu after a
+# Conv or Gemm is folded into its output's quantization (zero point 0), and the last Gemm's output
+# stays float. Both ONNX Runtime and the Java ModelWeights reader load the result.
+#
+# --report compares the two models from BulkEvaluator runs over the same CSV (java BulkEvaluator
+# test.csv float.csv with -Dchess.model=ml_model/model.onnx, then with model_int8.onnx) and prints
+# the rows of quantization_report.md.
+
+CALIBRATION_SIZE = 256
+
+FLOAT, UINT8, INT8, INT32 = 1, 2, 3, 6
+PIECE_TO_INDEX = {p: i for i, p in enumerate("PNBRQKpnbrqk")}
+
+
+# ----------------------------------------------------------------------------------------------
+# Protobuf wire format, just enough for ONNX models
+
+def read_varint(data, i):
+    value = shift = 0
+    while True:
+        byte = data[i]
+        i += 1
+        value |= (byte & 0x7F) << shift
+        shift += 7
+        if byte < 0x80:
+            return value, i
+
+
+def parse(data):
+    # (field, wire type, value) in file order; length-delimited values stay bytes
+    fields, i = [], 0
+    while i < len(data):
+        key, i = read_varint(data, i)
+        field, wire = key >> 3, key & 7
+        if wire == 0:
+            value, i = read_varint(data, i)
+        elif wire == 1:
+            value, i = data[i:i + 8], i + 8
+        elif wire == 5:
+            value, i = data[i:i + 4], i + 4
+        elif wire == 2:
+            length, i = read_varint(data, i)
+            value, i = data[i:i + length], i + length
+        else:
+            raise ValueError(f"unsupported wire type {wire}")
+        fields.append((field, wire, value))
+    return fields
+
+
+def varint(value):
+    if value < 0:
+        value += 1 << 64
+    out = bytearray()
+    while True:
+        byte = value & 0x7F
+        value >>= 7
+        if value:
+            out.append(byte | 0x80)
+        else:
+            out.append(byte)
+            return bytes(out)
+
+
+def field_varint(field, value):
+    return varint(field << 3) + varint(value)
+
+
+def field_bytes(field, value):
+    if isinstance(value, str):
+        value = value.encode()
+    return varint(field << 3 | 2) + varint(len(value)) + value
+
+
+def first(fields, number):
+    return next(value for field, _, value in fields if field == number)
+
+
+# ----------------------------------------------------------------------------------------------
+# ONNX messages
+
+def tensor(name, data_type, dims, values):
+    packed = {FLOAT: "f", UINT8: "B", INT8: "b", INT32: "i"}[data_type]
+    out = b"".join(field_varint(1, d) for d in dims)
+    out += field_varint(2, data_type) + field_bytes(8, name)
+    return out + field_bytes(9, struct.pack(f"<{len(values)}{packed}", *values))
+
+
+def read_tensor(data):
+    fields = parse(data)
+    dims = [value for field, _, value in fields if field == 1]
+    raw = first(fields, 9)
+    return first(fields, 8).decode(), dims, list(struct.unpack(f"<{len(raw) // 4}f", raw))
+
+
+def node(op_type, inputs, outputs, name, **attributes):
+    out = b"".join(field_bytes(1, i) for i in inputs) + b"".join(field_bytes(2, o) for o in outputs)
+    out += field_bytes(3, name) + field_bytes(4, op_type)
+    for key, value in attributes.items():
+        out += field_bytes(5, field_bytes(1, key) + field_varint(3, value) + field_varint(20, 2))
+    return out
+
+
+# ----------------------------------------------------------------------------------------------
+# Float forward pass, for the activation ranges
+
+def encode_fen(fen):
+    # [plane][row][col] as onnx_export.encode_fen: row 0 is rank 8
+    planes = [[[0.0] * 8 for _ in range(8)] for _ in range(12)]
+    row = col = 0
+    for c in fen.split(" ")[0]:
+        if c == "/":
+            row, col = row + 1, 0
+        elif c.isdigit():
+            col += int(c)
+        else:
+            planes[PIECE_TO_INDEX[c]][row][col] = 1.0
+            col += 1
+    return planes
+
+
+def conv3x3(inputs, weights, bias):
+    # inputs [in][8][8], weights flat [out][in][3][3], padding 1
+    channels = len(inputs)
+    out = []
+    for o, b in enumerate(bias):
+        plane = [[b] * 8 for _ in range(8)]
+        for i in range(channels):
+            source = inputs[i]
+            taps = weights[(o * channels + i) * 9:(o * channels + i + 1) * 9]
+            for ky in range(3):
+                for kx in range(3):
+                    w = taps[ky * 3 + kx]
+                    if w == 0.0:
+                        continue
+                    for y in range(max(0, 1 - ky), min(8, 9 - ky)):
+                        src, dst = source[y + ky - 1], plane[y]
+                        for x in range(max(0, 1 - kx), min(8, 9 - kx)):
+                            dst[x] += w * src[x + kx - 1]
+        out.append(plane)
+    return out
+
+
+def relu(values):
+    return [max(0.0, v) for v in values]
+
+
+def activation_maxima(weights, fens):
+    # Largest value of each ReLU output over fens: conv1, conv2 and the hidden layer
+    w0, b0 = weights["model.0.weight"], weights["model.0.bias"]
+    w2, b2 = weights["model.2.weight"], weights["model.2.bias"]
+    w5, b5 = weights["model.5.weight"], weights["model.5.bias"]
+    rows5 = [w5[j * 4096:(j + 1) * 4096] for j in range(len(b5))]
+    maxima = [0.0, 0.0, 0.0]
+    for n, fen in enumerate(fens):
+        conv1 = [[relu(row) for row in plane] for plane in conv3x3(encode_fen(fen), w0, b0)]
+        conv2 = [[relu(row) for row in plane] for plane in conv3x3(conv1, w2, b2)]
+        flat = [v for plane in conv2 for row in plane for v in row]
+        hidden = relu([b + math.fsum(w * x for w, x in zip(row, flat) if x) for row, b in zip(rows5, b5)])
+        for k, layer in enumerate((flat_values(conv1), flat, hidden)):
+            maxima[k] = max(maxima[k], max(layer))
+        if (n + 1) % 64 == 0:
+            print(f"calibrated on {n + 1} positions", file=sys.stderr)
+    return maxima
+
+
+def flat_values(planes):
+    return [v for plane in planes for row in plane for v in row]
+
+
+# ----------------------------------------------------------------------------------------------
+# Quantization
+
+def quantize_weight(name, dims, values, input_scale):
+    # INT8 weight per output channel (symmetric) and its INT32 bias counterpart's scales
+    channels = dims[0]
+    inner = len(values) // channels
+    scales, quantized = [], []
+    for c in range(channels):
+        row = values[c * inner:(c + 1) * inner]
+        scale = max(abs(v) for v in row) / 127.0 or 1.0
+        scales.append(scale)
+        quantized.extend(max(-127, min(127, round(v / scale))) for v in row)
+    initializers = [tensor(name + "_quantized", INT8, dims, quantized),
+                    tensor(name + "_scale", FLOAT, [channels], scales),
+                    tensor(name + "_zero_point", INT8, [channels], [0] * channels)]
+    return initializers, [input_scale * s for s in scales]
+
+
+def quantize_bias(name, values, scales):
+    quantized = [round(v / s) for v, s in zip(values, scales)]
+    return [tensor(name + "_quantized", INT32, [len(values)], quantized),
+            tensor(name + "_quantized_scale", FLOAT, [len(values)], scales),
+            tensor(name + "_quantized_zero_point", INT32, [len(values)], [0] * len(values))]
+
+
+def activation(name, maximum):
+    # UINT8 over [0, maximum]: zero point 0, so negative values clamp as the folded ReLU did
+    scale = maximum / 255.0 or 1.0
+    return scale, [tensor(name + "_scale", FLOAT, [], [scale]), tensor(name + "_zero_point", UINT8, [], [0])]
+
+
+def qdq(tensor_name, nodes):
+    # Quantize and dequantize tensor_name; returns the name the consumers read instead
+    q, dq = tensor_name + "_QuantizeLinear_Output", tensor_name + "_DequantizeLinear_Output"
+    params = [tensor_name + "_scale", tensor_name + "_zero_point"]
+    nodes.append(node("QuantizeLinear", [tensor_name] + params, [q], tensor_name + "_QuantizeLinear"))
+    nodes.append(node("DequantizeLinear", [q] + params, [dq], tensor_name + "_DequantizeLinear"))
+    return dq
+
+
+def dequantized(name, suffix, nodes):
+    out = name + "_DequantizeLinear_Output"
+    inputs = [name + "_quantized", name + suffix + "scale", name + suffix + "zero_point"]
+    nodes.append(node("DequantizeLinear", inputs, [out], name + "_DequantizeLinear", axis=0))
+    return out
+
+
+def quantize(csv_path, model_path="model.onnx", quantized_path="model_int8.onnx"):
+    model = parse(open(model_path, "rb").read())
+    graph = parse(first(model, 7))
+    weights = {}
+    for field, _, value in graph:
+        if field == 5:
+            name, dims, values = read_tensor(value)
+            weights[name] = values
+            weights[name + ".dims"] = dims
+
+    with open(csv_path) as f:
+        fens = [line.split(",")[0] for line in f if "/" in line.split(",")[0]][:CALIBRATION_SIZE]
+    maxima = activation_maxima(weights, fens)
+
+    # board -> Conv(+Relu) -> Conv(+Relu) -> Flatten -> Gemm(+Relu) -> Gemm -> evaluation
+    initializers, nodes = [], []
+    scale, params = activation("board", 1.0)
+    initializers += params
+    x = qdq("board", nodes)
+    layers = [("model.0", "Conv", "/model/model.0/Conv_output_0", maxima[0]),
+              ("model.2", "Conv", "/model/model.2/Conv_output_0", maxima[1]),
+              ("model.5", "Gemm", "/model/model.5/Gemm_output_0", maxima[2]),
+              ("model.7", "Gemm", "evaluation", None)]
+    for prefix, op_type, output, maximum in layers:
+        w, b = prefix + ".weight", prefix + ".bias"
+        params, bias_scales = quantize_weight(w, weights[w + ".dims"], weights[w], scale)
+        initializers += params + quantize_bias(b, weights[b], bias_scales)
+        inputs = [x, dequantized(w, "_", nodes), dequantized(b, "_quantized_", nodes)]
+        if op_type == "Conv":
+            nodes.append(node("Conv", inputs, [output], prefix + "/Conv", group=1))
+            nodes[-1] += b"".join(field_bytes(5, attr) for attr in conv_attributes())
+        else:
+            nodes.append(node("Gemm", inputs, [output], prefix + "/Gemm", transB=1))
+        if maximum is None:
+            break
+        scale, params = activation(output, maximum)
+        initializers += params
+        x = qdq(output, nodes)
+        if prefix == "model.2":
+            # Flatten passes the quantized values through, as QDQ keeps them on both sides
+            flat = "/model/model.4/Flatten_output_0"
+            nodes.append(node("Flatten", [x], [flat], "/model/model.4/Flatten", axis=1))
+            initializers += [tensor(flat + "_scale", FLOAT, [], [scale]), tensor(flat + "_zero_point", UINT8, [], [0])]
+            x = qdq(flat, nodes)
+
+    out_graph = b"".join(field_bytes(1, n) for n in nodes) + field_bytes(2, first(graph, 2))
+    out_graph += b"".join(field_bytes(5, t) for t in initializers)
+    out_graph += b"".join(field_bytes(f, v) for f, _, v in graph if f in (11, 12))
+    # Per-channel DequantizeLinear needs opset 13; Conv, Relu, Flatten and Gemm are unchanged since 11
+    out_model = field_varint(1, 7) + b"".join(field_bytes(f, v) for f, w, v in model if f in (2, 3))
+    out_model += field_bytes(7, out_graph) + field_bytes(8, field_varint(2, 13))
+    with open(quantized_path, "wb") as f:
+        f.write(out_model)
+    print(f"wrote {quantized_path}: activation maxima {', '.join(f'{m:.3f}' for m in maxima)}")
+
+
+def conv_attributes():
+    def ints(name, values):
+        return field_bytes(1, name) + b"".join(field_varint(8, v) for v in values) + field_varint(20, 7)
+    return [ints("dilations", [1, 1]), ints("kernel_shape", [3, 3]), ints("pads", [1, 1, 1, 1]),
+            ints("strides", [1, 1])]
+
+
+# ----------------------------------------------------------------------------------------------
+# Report
+
+def read_predictions(path):
+    # fen -> (target, prediction) from a BulkEvaluator output, in pawns
+    with open(path) as f:
+        return {fen: (float(target), float(prediction))
+                for fen, target, prediction in (line.rstrip("\n").rsplit(",", 2) for line in f)}
+
+
+def read_summary(path):
+    with open(path) as f:
+        return dict(line.rstrip("\n").split(" ", 1) for line in f)
+
+
+def mae_r2(pairs):
+    targets = [t for t, _ in pairs]
+    mean = sum(targets) / len(targets)
+    residual = sum((t - p) ** 2 for t, p in pairs)
+    total = sum((t - mean) ** 2 for t in targets)
+    return sum(abs(t - p) for t, p in pairs) / len(pairs), 1 - residual / total
+
+
+def report(test_csv, float_csv, int8_csv, float_summary, int8_summary):
+    floats, int8s = read_predictions(float_csv), read_predictions(int8_csv)
+    fens = [fen for fen in floats if fen in int8s]
+    drift = [abs(int8s[fen][1] - floats[fen][1]) for fen in fens]
+    print(f"Test positions: {len(fens)} from {test_csv} (scores in pawns)")
+    print()
+    print("| model | MAE | R² | drift MAE | drift max | evals/s |")
+    print("|---|---|---|---|---|---|")
+    for name, rows, summary, drift_cells in [
+            ("float32", floats, float_summary, "- | -"),
+            ("int8", int8s, int8_summary, f"{sum(drift) / len(drift):.4f} | {max(drift):.4f}")]:
+        mae, r2 = mae_r2([rows[fen] for fen in fens])
+        print(f"| {name} | {mae:.4f} | {r2:.4f} | {drift_cells} | {read_summary(summary)['rows/s']} |")
+
+
+if __name__ == "__main__":
+    if len(sys.argv) > 1 and sys.argv[1] == "--report":
+        report(*sys.argv[2:7])
+    else:
+        quantize(*sys.argv[1:4])
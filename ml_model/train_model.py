@@ -1,3 +1,5 @@
+import argparse
+
 import torch
 import torch.nn as nn
 import torch.optim as optim
@@ -56,19 +58,35 @@ class EvaluationModel(nn.Module):
     def forward(self, x):
         return self.model(x)
 
-def train(csv_path="chess_data.csv", epochs=30, batch_size=32):
-    # Load and sample data
-    full_df = pd.read_csv(csv_path, names=["fen", "score"], header=None)
-    df = full_df.sample(n=80000, random_state=42).reset_index(drop=True) #80,000 random samples
-
-    # Split train/test
-    train_df, test_df = train_test_split(df, test_size=0.2, random_state=42)
-
-    # Create datasets and dataloaders
-    train_dataset = ChessDatasetFromDF(train_df)
-    test_dataset = ChessDatasetFromDF(test_df)
-    train_loader = DataLoader(train_dataset, batch_size=batch_size, shuffle=True)
-    test_loader = DataLoader(test_dataset, batch_size=batch_size, shuffle=False)
+def train(csv_path="chess_data.csv", epochs=30, batch_size=32, quantize=False):
+    # The quantization tools are only needed, and only imported, with quantize=True
+    if quantize:
+        import quantize_model
+    if csv_path.endswith(".bin"):
+        # Packed file from `java PackedDataset`: every row, read straight from a memory map
+        import packed_dataset
+        dataset = packed_dataset.PackedDataset(csv_path)
+        train_idx, test_idx = train_test_split(np.arange(len(dataset)), test_size=0.2, random_state=42)
+        train_loader = packed_dataset.batch_loader(dataset, train_idx, batch_size, shuffle=True)
+        test_loader = packed_dataset.batch_loader(dataset, test_idx, batch_size, shuffle=False)
+        if quantize:
+            sample = np.random.default_rng(0).choice(train_idx, quantize_model.CALIBRATION_SIZE, replace=False)
+            calibration = dataset[sample][0].numpy()
+    else:
+        # Load and sample data
+        full_df = pd.read_csv(csv_path, names=["fen", "score"], header=None)
+        df = full_df.sample(n=80000, random_state=42).reset_index(drop=True) #80,000 random samples
+
+        # Split train/test
+        train_df, test_df = train_test_split(df, test_size=0.2, random_state=42)
+
+        # Create datasets and dataloaders
+        train_dataset = ChessDatasetFromDF(train_df)
+        test_dataset = ChessDatasetFromDF(test_df)
+        train_loader = DataLoader(train_dataset, batch_size=batch_size, shuffle=True)
+        test_loader = DataLoader(test_dataset, batch_size=batch_size, shuffle=False)
+        if quantize:
+            calibration = train_df["fen"].sample(n=quantize_model.CALIBRATION_SIZE, random_state=0).tolist()
 
     # Model setup
     model = EvaluationModel()
@@ -102,6 +120,10 @@ def train(csv_path="chess_data.csv", epochs=30, batch_size=32):
     # Export to ONNX
     export_to_onnx("fen_evaluator_model.pt", "model.onnx")
 
+    # INT8 variant calibrated on training positions; quantize_model.report compares the two
+    if quantize:
+        quantize_model.quantize("model.onnx", "model_int8.onnx", calibration)
+
     # Evaluation
     all_preds = []
     all_targets = []
@@ -140,7 +162,13 @@ def export_to_onnx(model_path="fen_evaluator_model.pt", onnx_path="model.onnx"):
     )
 
 if __name__ == "__main__":
-    train()
+    parser = argparse.ArgumentParser(description="Train the evaluation model and export model.onnx")
+    parser.add_argument("data", nargs="?", default="chess_data.csv",
+                        help="fen,score CSV or a packed .bin file from `java PackedDataset`")
+    parser.add_argument("--quantize", action="store_true",
+                        help="also write model_int8.onnx, calibrated on training positions")
+    args = parser.parse_args()
+    train(args.data, quantize=args.quantize)
 
 
 